@@ -2,10 +2,13 @@ package com.lambdajavablockchain;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ApplicationListener;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Import;
 
 import com.lambdajavablockchain.controller.ApiController;
+import com.lambdajavablockchain.service.ServicePrimer;
+import org.springframework.context.event.ContextClosedEvent;
 import org.springframework.web.servlet.HandlerAdapter;
 import org.springframework.web.servlet.HandlerMapping;
 import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
@@ -15,7 +18,7 @@ import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandl
 @SpringBootApplication
 // We use direct @Import instead of @ComponentScan to speed up cold starts
 // @ComponentScan(basePackages = "com.lambdajavablockchain.controller")
-@Import({ ApiController.class })
+@Import({ ApiController.class, ServicePrimer.class })
 public class Application {
 
     @Bean
@@ -31,6 +34,19 @@ public class Application {
         return new RequestMappingHandlerAdapter();
     }
 
+    /*
+     * Release the shared Secrets Manager client and the threads of its executor when the context is closed
+     */
+    @Bean
+    public ApplicationListener<ContextClosedEvent> secretsManagerShutdown() {
+        return new ApplicationListener<ContextClosedEvent>() {
+            @Override
+            public void onApplicationEvent(ContextClosedEvent event) {
+                SecretsManagerUtil.shutdown();
+            }
+        };
+    }
+
     public static void main(String[] args) {
         SpringApplication.run(Application.class, args);
     }
@@ -1,12 +1,18 @@
 package com.lambdajavablockchain;
 
-import com.amazonaws.services.secretsmanager.AWSSecretsManager;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.services.secretsmanager.AWSSecretsManagerAsync;
+import com.amazonaws.services.secretsmanager.AWSSecretsManagerAsyncClientBuilder;
 import com.amazonaws.services.secretsmanager.AWSSecretsManagerClientBuilder;
 import com.amazonaws.services.secretsmanager.model.*;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.lambdajavablockchain.model.AMBConfig;
 import com.lambdajavablockchain.exception.EnrollmentNotFoundException;
 import com.lambdajavablockchain.exception.SecretNotFoundException;
 import com.lambdajavablockchain.model.FabricEnrollment;
+import com.lambdajavablockchain.service.NamedThreadFactory;
 import org.apache.commons.io.IOUtils;
 import org.hyperledger.fabric.sdk.Enrollment;
 import org.slf4j.Logger;
@@ -21,6 +27,12 @@ import java.security.PrivateKey;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Util class to manage Fabric users credentials on AWS Secrets Manager
@@ -31,6 +43,21 @@ public class SecretsManagerUtil {
 
     private static final Logger log = LoggerFactory.getLogger(SecretsManagerUtil.class);
 
+    // Threads used by the async client to fetch secrets concurrently
+    private static final int ASYNC_THREADS = 4;
+
+    private static volatile AWSSecretsManagerAsync client;
+
+    // Enrollment secret names and combined format fields
+    private static final String PK_SECRET_SUFFIX = "pk";
+    private static final String CERTS_SECRET_SUFFIX = "certs";
+    private static final String ENROLLMENT_SECRET_SUFFIX = "enrollment";
+    private static final String COMBINED_FORMAT = "combined";
+    private static final String PK_FIELD = "pk";
+    private static final String CERT_FIELD = "cert";
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
     /**
      * Converts string representation of a private key to PrivateKey Object required by FabricEnrolment
      *
@@ -47,6 +74,52 @@ public class SecretsManagerUtil {
         return keyFactory.generatePrivate(priPKCS8);
     }
 
+    /**
+     * Returns the Secrets Manager client shared by all calls made from this container.
+     * The client and its connection pool are created on first use and reused afterwards.
+     *
+     * @return AWSSecretsManagerAsync
+     */
+    public static AWSSecretsManagerAsync getClient() {
+        AWSSecretsManagerAsync secretsManager = client;
+        if (secretsManager == null) {
+            synchronized (SecretsManagerUtil.class) {
+                secretsManager = client;
+                if (secretsManager == null) {
+                    secretsManager = buildClient();
+                    client = secretsManager;
+                }
+            }
+        }
+        return secretsManager;
+    }
+
+    /**
+     * Releases the shared Secrets Manager client, a new client is created on next use
+     */
+    public static synchronized void shutdown() {
+        if (client != null) {
+            client.shutdown();
+            client = null;
+        }
+    }
+
+    private static AWSSecretsManagerAsync buildClient() {
+        AWSSecretsManagerAsyncClientBuilder builder = AWSSecretsManagerAsyncClientBuilder.standard()
+                .withExecutorFactory(() -> Executors.newFixedThreadPool(ASYNC_THREADS,
+                        new NamedThreadFactory("secrets-manager")));
+
+        if (AMBConfig.SECRETS_MANAGER_ENDPOINT != null) {
+            // Endpoint override, used to point the client to a local Secrets Manager stand-in
+            log.info("Using Secrets Manager endpoint " + AMBConfig.SECRETS_MANAGER_ENDPOINT);
+            builder.withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(
+                    AMBConfig.SECRETS_MANAGER_ENDPOINT, AMBConfig.REGION));
+        } else {
+            builder.withRegion(AMBConfig.REGION);
+        }
+        return builder.build();
+    }
+
     /**
      * Retrieves a secret by name from AWS Secrets Manager
      * @param secretName String: secret name
@@ -54,26 +127,49 @@ public class SecretsManagerUtil {
      * @throws SecretNotFoundException
      */
     public static String getSecret(String secretName) throws SecretNotFoundException {
-        // Create a Secrets Manager client
-        AWSSecretsManager client = AWSSecretsManagerClientBuilder.standard()
-                .withRegion(AMBConfig.REGION)
-                .build();
-
         GetSecretValueRequest getSecretValueRequest = new GetSecretValueRequest()
                 .withSecretId(secretName);
-        GetSecretValueResult getSecretValueResult = null;
 
         try {
-            getSecretValueResult = client.getSecretValue(getSecretValueRequest);
-        } catch (DecryptionFailureException | InvalidParameterException
-                | InvalidRequestException | InternalServiceErrorException e) {
-            log.warn("Unable to retrieve secret " + secretName);
-            throw new SecretNotFoundException("Unable to retrieve secret", e);
-        } catch (ResourceNotFoundException e) {
-            log.warn("Secret not found in Secrets Manager " + secretName);
-            throw new SecretNotFoundException("Secret not found in Secrets Manager", e);
+            return toSecretString(getClient().getSecretValue(getSecretValueRequest));
+        } catch (AWSSecretsManagerException e) {
+            throw toSecretNotFoundException(secretName, e);
         }
+    }
 
+    /**
+     * Retrieves several secrets from AWS Secrets Manager concurrently and waits for all of them
+     *
+     * @param secretNames String: secret names
+     * @return Map of secret name to secret value
+     * @throws SecretNotFoundException if any of the secrets cannot be retrieved
+     */
+    public static Map<String, String> getSecrets(String... secretNames) throws SecretNotFoundException {
+        Map<String, Future<GetSecretValueResult>> futures = new LinkedHashMap<>();
+        for (String secretName : secretNames) {
+            futures.put(secretName, getClient().getSecretValueAsync(new GetSecretValueRequest()
+                    .withSecretId(secretName)));
+        }
+
+        Map<String, String> secrets = new HashMap<>();
+        try {
+            for (Map.Entry<String, Future<GetSecretValueResult>> future : futures.entrySet()) {
+                secrets.put(future.getKey(), toSecretString(future.getValue().get()));
+            }
+            return secrets;
+        } catch (ExecutionException e) {
+            String secretName = futures.keySet().stream()
+                    .filter(name -> !secrets.containsKey(name)).findFirst().orElse("");
+            throw toSecretNotFoundException(secretName, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SecretNotFoundException("Interrupted while retrieving secrets", e);
+        } finally {
+            futures.values().forEach(future -> future.cancel(true));
+        }
+    }
+
+    private static String toSecretString(GetSecretValueResult getSecretValueResult) {
         if (getSecretValueResult.getSecretString() != null) {
             return getSecretValueResult.getSecretString();
         } else {
@@ -82,8 +178,27 @@ public class SecretsManagerUtil {
         }
     }
 
+    private static SecretNotFoundException toSecretNotFoundException(String secretName, Throwable e) {
+        if (e instanceof ResourceNotFoundException) {
+            log.warn("Secret not found in Secrets Manager " + secretName);
+            return new SecretNotFoundException("Secret not found in Secrets Manager", e);
+        }
+        if (e instanceof DecryptionFailureException || e instanceof InvalidParameterException
+                || e instanceof InvalidRequestException || e instanceof InternalServiceErrorException) {
+            log.warn("Unable to retrieve secret " + secretName);
+            return new SecretNotFoundException("Unable to retrieve secret", e);
+        }
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+        return new SecretNotFoundException("Unable to retrieve secret", e);
+    }
+
     /**
      * Creates FabricEnrollment using user credentials (private key and sign certificate)
+     * When the combined format is enabled, the single enrollment secret is read first and the legacy
+     * pk/certs pair is used as a fallback. Legacy users are rewritten to the combined format on first read
+     * when migration is enabled.
      *
      * @param userId String: user id
      * @param orgName String: organisation name
@@ -92,14 +207,28 @@ public class SecretsManagerUtil {
      */
     public static FabricEnrollment getFabricEnrollment(String userId, String orgName) throws EnrollmentNotFoundException {
 
-        String userPKSecretName = "fabric/orgs/" + orgName + "/" + userId + "/pk";
-        String userCertsSecretName = "fabric/orgs/" + orgName + "/" + userId + "/certs";
+        String userPKSecretName = secretName(userId, orgName, PK_SECRET_SUFFIX);
+        String userCertsSecretName = secretName(userId, orgName, CERTS_SECRET_SUFFIX);
+        String userEnrollmentSecretName = secretName(userId, orgName, ENROLLMENT_SECRET_SUFFIX);
 
         try {
             log.debug("Trying to retrieve " + userId + " credentials from AWS Secrets Manager");
 
-            String pkAsString = SecretsManagerUtil.getSecret(userPKSecretName);
-            String certString = SecretsManagerUtil.getSecret(userCertsSecretName);
+            if (isCombinedFormat()) {
+                try {
+                    // Private key and certificate stored together in one secret
+                    FabricEnrollment fabricEnrollment = readCombinedSecret(getSecret(userEnrollmentSecretName));
+                    log.info("Found users credentials in Secrets Manager");
+                    return fabricEnrollment;
+                } catch (SecretNotFoundException | IOException | InvalidKeySpecException e) {
+                    log.debug("Combined enrollment secret not usable for " + userId + ", trying legacy secrets");
+                }
+            }
+
+            // Fetch private key and certificate in parallel
+            Map<String, String> secrets = SecretsManagerUtil.getSecrets(userPKSecretName, userCertsSecretName);
+            String pkAsString = secrets.get(userPKSecretName);
+            String certString = secrets.get(userCertsSecretName);
 
             FabricEnrollment fabricEnrollment = null;
 
@@ -109,6 +238,10 @@ public class SecretsManagerUtil {
 
             // Create FabricEnrollment with Secrets Manager credentials
             fabricEnrollment = new FabricEnrollment(privKey, certString);
+
+            if (isCombinedFormat() && AMBConfig.ENROLLMENT_SECRET_MIGRATE) {
+                migrateToCombinedSecret(userId, userEnrollmentSecretName, pkAsString, certString);
+            }
             return fabricEnrollment;
         } catch (SecretNotFoundException | NoSuchAlgorithmException | InvalidKeySpecException e) {
             log.warn("Credentials not found on Secrets Manager");
@@ -126,16 +259,86 @@ public class SecretsManagerUtil {
      */
     public static boolean storeEnrollmentCredentials(String userId, String orgName, Enrollment enrollment) {
 
-        String userPKSecretName = "fabric/orgs/" + orgName + "/" + userId + "/pk";
-        String userCertsSecretName = "fabric/orgs/" + orgName + "/" + userId + "/certs";
+        String pkAsString = Base64.getEncoder().encodeToString(enrollment.getKey().getEncoded());
+
+        if (isCombinedFormat()) {
+            // Save Fabric credentials to a single secret
+            return SecretsManagerUtil.createSecret(secretName(userId, orgName, ENROLLMENT_SECRET_SUFFIX),
+                    writeCombinedSecret(pkAsString, enrollment.getCert()));
+        }
+
+        String userPKSecretName = secretName(userId, orgName, PK_SECRET_SUFFIX);
+        String userCertsSecretName = secretName(userId, orgName, CERTS_SECRET_SUFFIX);
 
         // Save Fabric credentials to Secrets Manager
         SecretsManagerUtil.createSecret(userCertsSecretName, enrollment.getCert());
-        SecretsManagerUtil.createSecret(userPKSecretName,
-                Base64.getEncoder().encodeToString(enrollment.getKey().getEncoded()));
+        SecretsManagerUtil.createSecret(userPKSecretName, pkAsString);
         return true;
     }
 
+    /**
+     * Rewrites legacy pk/certs credentials of a user into the combined enrollment secret.
+     * An existing combined secret is only read back here when it could not be used, it is overwritten.
+     * Failures are logged only, the legacy secrets remain usable.
+     */
+    private static void migrateToCombinedSecret(String userId, String enrollmentSecretName,
+                                                String pkAsString, String certString) {
+        String combined = writeCombinedSecret(pkAsString, certString);
+        try {
+            if (createSecret(enrollmentSecretName, combined)) {
+                log.info("Migrated " + userId + " credentials to combined enrollment secret");
+            } else {
+                // unreadable combined secret, e.g. invalid JSON or a partial write
+                putSecret(enrollmentSecretName, combined);
+                log.info("Replaced unusable combined enrollment secret of " + userId);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Unable to migrate " + userId + " credentials to combined enrollment secret - " + e.getMessage());
+        }
+    }
+
+    private static boolean isCombinedFormat() {
+        return COMBINED_FORMAT.equalsIgnoreCase(AMBConfig.ENROLLMENT_SECRET_FORMAT);
+    }
+
+    private static String secretName(String userId, String orgName, String suffix) {
+        return "fabric/orgs/" + orgName + "/" + userId + "/" + suffix;
+    }
+
+    /**
+     * Creates FabricEnrollment from the combined JSON representation of user credentials
+     *
+     * @param value String: JSON object holding the Base64 private key and the sign certificate
+     * @return FabricEnrollment
+     * @throws IOException, NoSuchAlgorithmException, InvalidKeySpecException
+     */
+    public static FabricEnrollment readCombinedSecret(String value)
+            throws IOException, NoSuchAlgorithmException, InvalidKeySpecException {
+        Map<String, String> credentials = OBJECT_MAPPER.readValue(value, new TypeReference<Map<String, String>>() {});
+        if (credentials.get(PK_FIELD) == null || credentials.get(CERT_FIELD) == null) {
+            throw new IOException("Combined enrollment secret is missing " + PK_FIELD + " or " + CERT_FIELD);
+        }
+        return new FabricEnrollment(buildPrivateKeyFromString(credentials.get(PK_FIELD)), credentials.get(CERT_FIELD));
+    }
+
+    /**
+     * Builds the combined JSON representation of user credentials
+     *
+     * @param pkAsString String: Base64 representation of private key
+     * @param certString String: sign certificate
+     * @return String
+     */
+    public static String writeCombinedSecret(String pkAsString, String certString) {
+        Map<String, String> credentials = new LinkedHashMap<>();
+        credentials.put(PK_FIELD, pkAsString);
+        credentials.put(CERT_FIELD, certString);
+        try {
+            return OBJECT_MAPPER.writeValueAsString(credentials);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unable to serialize enrollment credentials", e);
+        }
+    }
+
     /**
      * Creates a secret on AWS Secrets Manager
      * @param secretName String: secret name
@@ -143,16 +346,12 @@ public class SecretsManagerUtil {
      * @return boolean
      */
     public static boolean createSecret(String secretName, String value) {
-        // Create a Secrets Manager client
-        AWSSecretsManager client = AWSSecretsManagerClientBuilder.standard()
-                .withRegion(AMBConfig.REGION)
-                .build();
         CreateSecretRequest createSecretRequest = new CreateSecretRequest()
                 .withName(secretName)
                 .withSecretString(value);
 
         try {
-            client.createSecret(createSecretRequest);
+            getClient().createSecret(createSecretRequest);
             return true;
         } catch (ResourceExistsException | InvalidRequestException e) {
             return false;
@@ -161,6 +360,17 @@ public class SecretsManagerUtil {
         }
     }
 
+    /**
+     * Stores a new value of an existing secret on AWS Secrets Manager
+     * @param secretName String: secret name
+     * @param value String: secret value
+     */
+    public static void putSecret(String secretName, String value) {
+        getClient().putSecretValue(new PutSecretValueRequest()
+                .withSecretId(secretName)
+                .withSecretString(value));
+    }
+
     /**
      * Reads TLS certificate from resources folder
      * @param certFileName certificate file name
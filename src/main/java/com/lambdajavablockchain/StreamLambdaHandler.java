@@ -4,26 +4,37 @@ import com.amazonaws.serverless.exceptions.ContainerInitializationException;
 import com.amazonaws.serverless.proxy.model.AwsProxyRequest;
 import com.amazonaws.serverless.proxy.model.AwsProxyResponse;
 import com.amazonaws.serverless.proxy.spring.SpringBootLambdaContainerHandler;
+import com.amazonaws.serverless.proxy.spring.SpringBootProxyHandlerBuilder;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
+import com.lambdajavablockchain.model.AMBConfig;
+import com.lambdajavablockchain.service.LatencyMetrics;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.time.Instant;
 
 public class StreamLambdaHandler implements RequestStreamHandler {
     private static SpringBootLambdaContainerHandler<AwsProxyRequest, AwsProxyResponse> handler;
+    private static final LatencyMetrics metrics = LatencyMetrics.getInstance();
+    // invocations of a function instance are sequential, the first one is the cold start
+    private static boolean coldStart = true;
 
     static {
         try {
-            handler = SpringBootLambdaContainerHandler.getAwsProxyHandler(Application.class);
-            // For applications that take longer than 10 seconds to start, use the async builder:
-            // long startTime = Instant.now().toEpochMilli();
-            // handler = new SpringBootProxyHandlerBuilder()
-            //                    .defaultProxy()
-            //                    .asyncInit(startTime)
-            //                    .springBootApplication(Application.class)
-            //                    .buildAndInitialize();
+            if (AMBConfig.PRIME_ON_INIT) {
+                // Priming the Fabric client and channel can take longer than the 10 seconds Lambda allows
+                // for initialization, the async builder lets start up continue while the first request waits
+                long startTime = Instant.now().toEpochMilli();
+                handler = new SpringBootProxyHandlerBuilder()
+                        .defaultProxy()
+                        .asyncInit(startTime)
+                        .springBootApplication(Application.class)
+                        .buildAndInitialize();
+            } else {
+                handler = SpringBootLambdaContainerHandler.getAwsProxyHandler(Application.class);
+            }
         } catch (ContainerInitializationException e) {
             // if we fail here. We re-throw the exception to force another cold start
             e.printStackTrace();
@@ -37,7 +48,16 @@ public class StreamLambdaHandler implements RequestStreamHandler {
     @Override
     public void handleRequest(InputStream inputStream, OutputStream outputStream, Context context)
             throws IOException {
-        handler.proxyStream(inputStream, outputStream, context);
+        long start = LatencyMetrics.start();
+        boolean cold = coldStart;
+        coldStart = false;
+        try {
+            handler.proxyStream(inputStream, outputStream, context);
+        } finally {
+            metrics.recordInvocation(cold, start);
+            // samples of work finishing after the response, e.g. commits, are written with the next invocation
+            metrics.writeEmf(System.out);
+        }
     }
 
 }
\ No newline at end of file
@@ -1,21 +1,54 @@
 package com.lambdajavablockchain.controller;
 
 import com.lambdajavablockchain.exception.AppException;
+import com.lambdajavablockchain.exception.CircuitOpenException;
 import com.lambdajavablockchain.exception.EnrollmentNotFoundException;
+import com.lambdajavablockchain.exception.IdempotencyConflictException;
 import com.lambdajavablockchain.exception.ManagedBlockchainServiceException;
+import com.lambdajavablockchain.exception.PipelineFullException;
 import com.lambdajavablockchain.model.*;
+import com.lambdajavablockchain.service.BlockArchive;
+import com.lambdajavablockchain.service.CarView;
+import com.lambdajavablockchain.service.ChaincodeEventHub;
+import com.lambdajavablockchain.service.KeyHistoryCache;
 import com.lambdajavablockchain.service.ManagedBlockchainService;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.hyperledger.fabric.sdk.exception.ProposalException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.validation.ConstraintViolation;
 import javax.validation.Valid;
+import javax.validation.Validation;
+import javax.validation.Validator;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 @RestController
 @EnableWebMvc
@@ -24,6 +57,32 @@ public class ApiController {
 
     private static final Logger log = LoggerFactory.getLogger(ApiController.class);
 
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    // readers and writers are immutable and thread safe, created once instead of per request
+    private static final ObjectReader CAR_READER = MAPPER.readerFor(Car.class);
+    private static final ObjectWriter CAR_WRITER = MAPPER.writerFor(Car.class);
+    private static final String NDJSON = "application/x-ndjson";
+    private static final String PROMETHEUS_TEXT = "text/plain;version=0.0.4;charset=utf-8";
+    // opt-in commit-wait mode of the invoke endpoints, value "true" or a timeout in milliseconds
+    private static final String COMMIT_WAIT_HEADER = "X-Commit-Wait";
+    private static final String COMMIT_WAIT_PARAM = "commitWait";
+    private static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    // block number the car view and block archive responses are current to
+    private static final String BLOCK_NUMBER_HEADER = "X-Block-Number";
+    // complete history pages never change, they may be cached by clients and CDNs without revalidation
+    private static final String IMMUTABLE_CACHE_CONTROL = "public, max-age=31536000, immutable";
+    // cursor of the last event received by an event stream client, sent when it reconnects
+    private static final String LAST_EVENT_ID_HEADER = "Last-Event-ID";
+    // attempts to queue a bulk record while the write pipeline is full
+    private static final int BULK_SUBMIT_ATTEMPTS = 3;
+
+    /**
+     * Bean validation of bulk records, built on first use to keep it out of the cold start
+     */
+    private static class ValidatorHolder {
+        private static final Validator VALIDATOR = Validation.buildDefaultValidatorFactory().getValidator();
+    }
+
     @Autowired
     ManagedBlockchainService service;
 
@@ -56,18 +115,83 @@ public class ApiController {
         }
     }
 
+    /**
+     * Returns hit/miss/load-time counters of the enrollment cache
+     *
+     * @return
+     */
+    @RequestMapping(path = "/enrollment-cache/stats", method = RequestMethod.GET)
+    public ResponseEntity<?> enrollmentCacheStats() {
+        return new ResponseEntity<>(service.getEnrollmentCache().getStats(), HttpStatus.OK);
+    }
+
+    /**
+     * Returns latency, in-flight and ledger height counters of the peers in the pool, hedged and coalesced query
+     * counters and write pipeline counters
+     *
+     * @return
+     */
+    @RequestMapping(path = "/peers/stats", method = RequestMethod.GET)
+    public ResponseEntity<?> peerStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("peers", service.getPeerPool().getStats());
+        stats.put("queries", service.getQueryExecutor().getStats());
+        stats.put("coalescing", service.getQueryFlights().getStats());
+        stats.put("pipeline", service.getWritePipeline().getStats());
+        stats.put("keySerialization", service.getKeySerializer().getStats());
+        stats.put("transactions", service.getTransactionTracker().getStats());
+        stats.put("idempotency", service.getIdempotencyStore().getStats());
+        stats.put("circuit", service.getCircuitBreaker().getStats());
+        return new ResponseEntity<>(stats, HttpStatus.OK);
+    }
+
+    /**
+     * Returns the latency histograms of the request phases (client setup, user loading, channel initialization,
+     * query, endorsement, orderer submission, commit), per phase and per chaincode/function, and the cold and warm
+     * invocation counts, in Prometheus text format for scraping in server mode
+     *
+     * @return
+     */
+    @RequestMapping(path = "/metrics", method = RequestMethod.GET)
+    public ResponseEntity<?> metrics() {
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(PROMETHEUS_TEXT))
+                .body(service.getLatencyMetrics().toPrometheus());
+    }
+
+    /**
+     * Returns the latency summary of the request phases: count, mean, bucketed percentiles and maximum
+     *
+     * @return
+     */
+    @RequestMapping(path = "/metrics/stats", method = RequestMethod.GET)
+    public ResponseEntity<?> metricsStats() {
+        return new ResponseEntity<>(service.getLatencyMetrics().getStats(), HttpStatus.OK);
+    }
+
+    /**
+     * Returns hit ratio and invalidation counters of the query result cache
+     *
+     * @return
+     */
+    @RequestMapping(path = "/query-cache/stats", method = RequestMethod.GET)
+    public ResponseEntity<?> queryCacheStats() {
+        return new ResponseEntity<>(service.getQueryCache().getStats(), HttpStatus.OK);
+    }
+
     /**
      * Generic endpoint to query any function on any chaincode.
      *
      * @param chaincodeName Name of the chaincode
      * @param functionName Name of the function to query
      * @param args (optional) argument for the function to query
+     * @param passthrough (optional) write the chaincode payload bytes as is, JSON payloads are returned as application/json
      * @return
      */
     @RequestMapping(path = "/query", method = RequestMethod.GET)
     public ResponseEntity<?> query(@RequestParam String chaincodeName,
                                    @RequestParam String functionName,
-                                   @RequestParam(required = false) String args) {
+                                   @RequestParam(required = false) String args,
+                                   @RequestParam(required = false, defaultValue = "false") boolean passthrough) {
         try {
             if (args == null)
                 args = "";
@@ -77,15 +201,26 @@ public class ApiController {
                                             "args:" + args);
 
             service.setupClient();
-            // First retrieve LambdaUser's credentials and set user context
-            service.setUser(AMBConfig.LAMBDAUSER);
-            service.initChannel();
+            // First retrieve LambdaUser's credentials, the user context is passed with the request
+            FabricUser user = service.getUserContext(AMBConfig.LAMBDAUSER);
+            service.initChannel(user);
+
+            if (passthrough) {
+                // no decoding or re-encoding, the payload bytes are written to the response stream
+                byte[] payload = service.queryChaincodePayload(service.getClient(), service.getChannel(), user,
+                        chaincodeName, functionName, args);
+                return ResponseEntity.ok().contentType(payloadContentType(payload)).body(payload);
+            }
 
-            String res = service.queryChaincode(service.getClient(), service.getChannel(), chaincodeName, functionName, args);
+            String res = service.queryChaincode(service.getClient(), service.getChannel(), user,
+                    chaincodeName, functionName, args);
             return new ResponseEntity<>(res, HttpStatus.OK);
         } catch (EnrollmentNotFoundException | AppException e){
             log.error("Error while querying chaincode - " + e.getMessage());
             return new ResponseEntity<>("Error while querying chaincode - " + e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (CircuitOpenException e) {
+            log.error("Error while querying chaincode, " + e.getMessage());
+            return new ResponseEntity<>("Error while querying chaincode - " + e.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
         } catch (ManagedBlockchainServiceException e) {
             log.error("Error while querying chaincode, " + e.getMessage());
             return new ResponseEntity<>("Error while querying chaincode, ManagedBlockchainService startup failed - "
@@ -97,6 +232,145 @@ public class ApiController {
         }
     }
 
+    /**
+     * Generic endpoint to stream a paginated range or rich query. Pages are written as they arrive, one JSON line
+     * per page: {"records": [...], "bookmark": "..."}. The response stops after QUERY_STREAM_MAX_BYTES or
+     * {@code maxPages} pages, the bookmark of the last line is then passed as {@code bookmark} to continue.
+     * An empty bookmark means that all records were returned.
+     *
+     * @param chaincodeName Name of the chaincode
+     * @param functionName Name of the paginated function to query
+     * @param args (optional) arguments for the function, before the page size and bookmark
+     * @param pageSize (optional) number of records per page
+     * @param bookmark (optional) bookmark to continue from
+     * @param paginated (optional) false if the function returns all records at once and takes no page arguments
+     * @param maxPages (optional) maximum number of pages in this response
+     */
+    @RequestMapping(path = "/query/stream", method = RequestMethod.GET)
+    public void queryStream(@RequestParam String chaincodeName,
+                            @RequestParam String functionName,
+                            @RequestParam(required = false) List<String> args,
+                            @RequestParam(required = false) Integer pageSize,
+                            @RequestParam(required = false, defaultValue = "") String bookmark,
+                            @RequestParam(required = false, defaultValue = "true") boolean paginated,
+                            @RequestParam(required = false) Integer maxPages,
+                            HttpServletResponse response) throws IOException {
+        AtomicInteger pages = new AtomicInteger();
+        AtomicLong bytes = new AtomicLong();
+        try {
+            log.debug("Streaming chaincode query - chaincodeName:" + chaincodeName +
+                                                  "functionName:" + functionName +
+                                                  "bookmark:" + bookmark);
+
+            service.setupClient();
+            // First retrieve LambdaUser's credentials, the user context is passed with the request
+            FabricUser user = service.getUserContext(AMBConfig.LAMBDAUSER);
+            service.initChannel(user);
+
+            int size = pageSize == null ? AMBConfig.QUERY_PAGE_SIZE : Math.max(1, Math.min(pageSize, AMBConfig.QUERY_PAGE_SIZE_MAX));
+            int pageLimit = maxPages == null ? Integer.MAX_VALUE : Math.max(1, maxPages);
+            service.queryChaincodePages(service.getClient(), service.getChannel(), user, chaincodeName, functionName,
+                    args == null ? Collections.<String>emptyList() : args, size, bookmark, paginated, page -> {
+                        if (pages.get() == 0) {
+                            response.setStatus(HttpStatus.OK.value());
+                            response.setContentType(NDJSON);
+                        }
+                        // each page is written and flushed on its own, only one page is held in memory
+                        byte[] line = MAPPER.writeValueAsBytes(page);
+                        OutputStream out = response.getOutputStream();
+                        out.write(line);
+                        out.write('\n');
+                        out.flush();
+                        bytes.addAndGet(line.length + 1);
+                        return pages.incrementAndGet() < pageLimit && bytes.get() < AMBConfig.QUERY_STREAM_MAX_BYTES;
+                    });
+        } catch (EnrollmentNotFoundException | AppException e){
+            log.error("Error while streaming chaincode query - " + e.getMessage());
+            writeStreamError(response, pages.get(), HttpStatus.BAD_REQUEST, "Error while querying chaincode - " + e.getMessage());
+        } catch (CircuitOpenException e) {
+            log.error("Error while streaming chaincode query, " + e.getMessage());
+            writeStreamError(response, pages.get(), HttpStatus.SERVICE_UNAVAILABLE, "Error while querying chaincode - " + e.getMessage());
+        } catch (ManagedBlockchainServiceException e) {
+            log.error("Error while streaming chaincode query, " + e.getMessage());
+            writeStreamError(response, pages.get(), HttpStatus.INTERNAL_SERVER_ERROR,
+                    "Error while querying chaincode, ManagedBlockchainService startup failed - " + e.getMessage());
+        } catch (Exception e) {
+            log.error("Error while streaming query - function:" + functionName + " chaincode:" + chaincodeName);
+            e.printStackTrace();
+            writeStreamError(response, pages.get(), HttpStatus.INTERNAL_SERVER_ERROR, "Error while querying chaincode");
+        }
+    }
+
+    /**
+     * Reports a streaming query failure: as the response status before the first page, as a final
+     * {"error": "..."} line once pages were written
+     */
+    private static void writeStreamError(HttpServletResponse response, int pages, HttpStatus status, String message)
+            throws IOException {
+        if (pages == 0 && !response.isCommitted()) {
+            response.setStatus(status.value());
+            response.setContentType("text/plain");
+            response.getOutputStream().write(message.getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        Map<String, String> error = Collections.singletonMap("error", message);
+        response.getOutputStream().write(MAPPER.writeValueAsBytes(error));
+        response.getOutputStream().write('\n');
+        response.getOutputStream().flush();
+    }
+
+    /**
+     * Generic endpoint to run a list of queries in one request, the queries are sent concurrently
+     *
+     * @param batchRequest BatchQueryRequest object containing:
+     *                     - queries: list of queries, each with chaincodeName, functionName and argList (optional)
+     * @return list of per query results, in the order of the queries
+     */
+    @RequestMapping(path = "/query/batch", method = RequestMethod.POST)
+    public ResponseEntity<?> queryBatch(@RequestBody @Valid BatchQueryRequest batchRequest) {
+        try {
+            List<QueryRequest> queries = batchRequest.getQueries();
+            log.debug("Querying chaincode in batch - queries:" + queries.size());
+            if (queries.size() > AMBConfig.QUERY_BATCH_MAX_SIZE) {
+                return new ResponseEntity<>("Batch too large - at most " + AMBConfig.QUERY_BATCH_MAX_SIZE
+                        + " queries per request", HttpStatus.BAD_REQUEST);
+            }
+
+            service.setupClient();
+            // First retrieve LambdaUser's credentials, the user context is passed with the request
+            FabricUser user = service.getUserContext(AMBConfig.LAMBDAUSER);
+            service.initChannel(user);
+
+            List<CompletableFuture<byte[]>> futures = service.queryChaincodeBatch(service.getClient(),
+                    service.getChannel(), user, queries);
+
+            List<BatchItemResult> results = new ArrayList<>(futures.size());
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(new BatchItemResult(String.valueOf(i), HttpStatus.OK.value(),
+                            new String(futures.get(i).join()), null));
+                } catch (CompletionException e) {
+                    results.add(batchFailure(String.valueOf(i), e.getCause()));
+                }
+            }
+            return new ResponseEntity<>(results, HttpStatus.OK);
+        } catch (EnrollmentNotFoundException | AppException e){
+            log.error("Error while querying chaincode - " + e.getMessage());
+            return new ResponseEntity<>("Error while querying chaincode - " + e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (CircuitOpenException e) {
+            log.error("Error while querying chaincode, " + e.getMessage());
+            return new ResponseEntity<>("Error while querying chaincode - " + e.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
+        } catch (ManagedBlockchainServiceException e) {
+            log.error("Error while querying chaincode, " + e.getMessage());
+            return new ResponseEntity<>("Error while querying chaincode, ManagedBlockchainService startup failed - "
+                    + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (Exception e) {
+            log.error("Error while querying chaincode in batch");
+            e.printStackTrace();
+            return new ResponseEntity<>("Error while querying chaincode", HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
     /**
      * Generic endpoint to invoke any function on any chaincode
      *
@@ -104,30 +378,42 @@ public class ApiController {
      *                      - chaincodeName: name of the chaincode
      *                      - functionName: function to invoke
      *                      - argsList (optional): list of arguments for the function to invoke
+     * @param idempotencyKey (optional) a repeated request with the same key returns the transaction id of the first
+     *                       one instead of invoking again
      * @return
      */
     @RequestMapping(path = "/invoke", method = RequestMethod.POST)
-    public ResponseEntity<?> invoke(@RequestBody @Valid InvokeRequest invokeRequest) {
+    public ResponseEntity<?> invoke(@RequestBody @Valid InvokeRequest invokeRequest,
+                                    @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
         try {
             log.debug("Invoking chaincode with payload:" + invokeRequest.toString());
 
             service.setupClient();
-            // First retrieve LambdaUser's credentials and set user context
-            service.setUser(AMBConfig.LAMBDAUSER);
-            service.initChannel();
+            // First retrieve LambdaUser's credentials, the user context is passed with the request
+            FabricUser user = service.getUserContext(AMBConfig.LAMBDAUSER);
+            service.initChannel(user);
 
             // build arguments list required by the chaincode
             String[] arguments = invokeRequest.getArgList().stream().toArray(String[]::new);
 
-            service.invokeChaincode(service.getClient(), service.getChannel(),
+            String txId = service.invokeChaincode(service.getClient(), service.getChannel(), user, idempotencyKey,
                     invokeRequest.getChaincodeName(),
                     invokeRequest.getFunctionName(),
                     arguments);
 
-            return new ResponseEntity<>("Invoke successful", HttpStatus.ACCEPTED);
+            return accepted(txId);
+        } catch (IdempotencyConflictException e) {
+            log.error("Error while invoking chaincode - " + e.getMessage());
+            return new ResponseEntity<>("Error while invoking chaincode - " + e.getMessage(), HttpStatus.UNPROCESSABLE_ENTITY);
         } catch (EnrollmentNotFoundException | AppException e){
             log.error("Error while invoking chaincode - " + e.getMessage());
             return new ResponseEntity<>("Error while invoking chaincode - " + e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (PipelineFullException e) {
+            log.error("Error while invoking chaincode, " + e.getMessage());
+            return new ResponseEntity<>("Error while invoking chaincode - " + e.getMessage(), HttpStatus.TOO_MANY_REQUESTS);
+        } catch (CircuitOpenException e) {
+            log.error("Error while invoking chaincode, " + e.getMessage());
+            return new ResponseEntity<>("Error while invoking chaincode - " + e.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
         } catch (ManagedBlockchainServiceException e) {
             log.error("Error while invoking chaincode, ManagedBlockchainService startup failed - " + e.getMessage());
             return new ResponseEntity<>("Error while invoking chaincode, ManagedBlockchainService startup failed - "
@@ -140,6 +426,178 @@ public class ApiController {
         }
     }
 
+    /**
+     * Invoke in commit-wait mode, selected with the X-Commit-Wait header: the response is sent once the transaction
+     * is committed (200), invalidated (409) or the timeout expires (202, still PENDING)
+     *
+     * @param invokeRequest InvokeRequest object, see invoke()
+     * @param commitWait "true" or the commit timeout in milliseconds
+     * @param idempotencyKey (optional) see invoke()
+     * @return
+     */
+    @RequestMapping(path = "/invoke", method = RequestMethod.POST, headers = COMMIT_WAIT_HEADER)
+    public CompletableFuture<ResponseEntity<?>> invokeAndWait(@RequestBody @Valid InvokeRequest invokeRequest,
+                                                              @RequestHeader(COMMIT_WAIT_HEADER) String commitWait,
+                                                              @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false)
+                                                                      String idempotencyKey) {
+        log.debug("Invoking chaincode in commit-wait mode with payload:" + invokeRequest.toString());
+        String[] arguments = invokeRequest.getArgList() == null ? new String[0]
+                : invokeRequest.getArgList().stream().toArray(String[]::new);
+        return invokeAndWait(idempotencyKey, invokeRequest.getChaincodeName(), invokeRequest.getFunctionName(),
+                arguments, commitWait, "invoking chaincode");
+    }
+
+    /**
+     * Invoke in commit-wait mode, selected with the commitWait parameter, see invokeAndWait()
+     */
+    @RequestMapping(path = "/invoke", method = RequestMethod.POST, params = COMMIT_WAIT_PARAM,
+            headers = "!" + COMMIT_WAIT_HEADER)
+    public CompletableFuture<ResponseEntity<?>> invokeAndWaitParam(@RequestBody @Valid InvokeRequest invokeRequest,
+                                                                   @RequestParam(COMMIT_WAIT_PARAM) String commitWait,
+                                                                   @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false)
+                                                                           String idempotencyKey) {
+        return invokeAndWait(invokeRequest, commitWait, idempotencyKey);
+    }
+
+    /**
+     * Commit status of a transaction returned by the invoke endpoints: PENDING until the transaction is in a block,
+     * then COMMITTED or INVALID with its validation code and block number, or FAILED if it never reached a block
+     *
+     * @param txId The id of the transaction
+     * @return TransactionStatus json object
+     */
+    @RequestMapping(path = "/transactions/{txId}", method = RequestMethod.GET)
+    public ResponseEntity<?> transactionStatus(@PathVariable(name = "txId") String txId) {
+        try {
+            log.debug("Querying transaction status - txId:" + txId);
+
+            service.setupClient();
+            // First retrieve LambdaUser's credentials, the user context is passed with the request
+            FabricUser user = service.getUserContext(AMBConfig.LAMBDAUSER);
+            service.initChannel(user);
+
+            TransactionStatus status = service.getTransactionStatus(service.getChannel(), user, txId);
+            if (status == null) {
+                return new ResponseEntity<>("Transaction not found - txId:" + txId, HttpStatus.NOT_FOUND);
+            }
+            return new ResponseEntity<>(status, HttpStatus.OK);
+        } catch (EnrollmentNotFoundException | AppException e){
+            log.error("Error while querying transaction status - " + e.getMessage());
+            return new ResponseEntity<>("Error while querying transaction status - " + e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (CircuitOpenException e) {
+            log.error("Error while querying transaction status, " + e.getMessage());
+            return new ResponseEntity<>("Error while querying transaction status - " + e.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
+        } catch (ProposalException e) {
+            // the peer could not be queried, the transaction may exist
+            log.error("Error while querying transaction status, peer query failed - " + e.getMessage());
+            return new ResponseEntity<>("Error while querying transaction status, peer query failed - " + e.getMessage(),
+                    HttpStatus.BAD_GATEWAY);
+        } catch (ManagedBlockchainServiceException e) {
+            log.error("Error while querying transaction status, ManagedBlockchainService startup failed - " + e.getMessage());
+            return new ResponseEntity<>("Error while querying transaction status, ManagedBlockchainService startup failed - "
+                    + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (Exception e) {
+            log.error("Error while querying transaction status - txId:" + txId);
+            e.printStackTrace();
+            return new ResponseEntity<>("Error while querying transaction status", HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Archived transaction by id, read from the local block archive without calling the peers
+     *
+     * @param txId The id of the transaction
+     * @return ArchivedTransaction json object, with its validation code and write set
+     */
+    @RequestMapping(path = "/archive/transactions/{txId}", method = RequestMethod.GET)
+    public ResponseEntity<?> archivedTransaction(@PathVariable(name = "txId") String txId) {
+        try {
+            log.debug("Reading archived transaction - txId:" + txId);
+            BlockArchive archive = service.getBlockArchive();
+            if (!archive.isEnabled()) {
+                return new ResponseEntity<>("Block archive is disabled, set BLOCK_ARCHIVE_ENABLED to enable it", HttpStatus.NOT_FOUND);
+            }
+            startArchive();
+
+            ArchivedTransaction transaction = archive.getTransaction(txId);
+            if (transaction == null) {
+                return new ResponseEntity<>("Transaction not archived - txId:" + txId, HttpStatus.NOT_FOUND);
+            }
+            return new ResponseEntity<>(transaction, HttpStatus.OK);
+        } catch (EnrollmentNotFoundException | AppException e){
+            log.error("Error while reading block archive - " + e.getMessage());
+            return new ResponseEntity<>("Error reading block archive - " + e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (ManagedBlockchainServiceException e) {
+            log.error("Error reading block archive, ManagedBlockchainService startup failed - " + e.getMessage());
+            return new ResponseEntity<>("Error reading block archive, ManagedBlockchainService startup failed - "
+                    + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (Exception e) {
+            log.error("Error while reading archived transaction - txId:" + txId);
+            e.printStackTrace();
+            return new ResponseEntity<>("Error reading block archive", HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Archived transactions writing a ledger key, e.g. the transactions touching a car, read from the local block
+     * archive without calling the peers
+     *
+     * @param key The ledger key, e.g. a car id
+     * @param chaincodeName (optional) chaincode owning the key, fabcar by default
+     * @param limit (optional) maximum number of transactions, the most recent ones are returned
+     * @return list of ArchivedTransaction json objects, in ledger order
+     */
+    @RequestMapping(path = "/archive/keys/{key}", method = RequestMethod.GET)
+    public ResponseEntity<?> archivedKeyHistory(@PathVariable(name = "key") String key,
+                                                @RequestParam(defaultValue = "fabcar") String chaincodeName,
+                                                @RequestParam(required = false) Integer limit) {
+        try {
+            log.debug("Reading archived transactions of key:" + key + " chaincode:" + chaincodeName);
+            BlockArchive archive = service.getBlockArchive();
+            if (!archive.isEnabled()) {
+                return new ResponseEntity<>("Block archive is disabled, set BLOCK_ARCHIVE_ENABLED to enable it", HttpStatus.NOT_FOUND);
+            }
+            startArchive();
+
+            int max = limit == null ? AMBConfig.BLOCK_ARCHIVE_MAX_RESULTS
+                    : Math.max(1, Math.min(limit, AMBConfig.BLOCK_ARCHIVE_MAX_RESULTS));
+            return ResponseEntity.ok().header(BLOCK_NUMBER_HEADER, String.valueOf(archive.getCheckpoint()))
+                    .body(archive.getKeyHistory(chaincodeName, key, max));
+        } catch (EnrollmentNotFoundException | AppException e){
+            log.error("Error while reading block archive - " + e.getMessage());
+            return new ResponseEntity<>("Error reading block archive - " + e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (ManagedBlockchainServiceException e) {
+            log.error("Error reading block archive, ManagedBlockchainService startup failed - " + e.getMessage());
+            return new ResponseEntity<>("Error reading block archive, ManagedBlockchainService startup failed - "
+                    + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (Exception e) {
+            log.error("Error while reading archived transactions - key:" + key);
+            e.printStackTrace();
+            return new ResponseEntity<>("Error reading block archive", HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Returns the block archive counters (checkpoint, size, indexed transactions and keys)
+     *
+     * @return json object with the archive counters
+     */
+    @RequestMapping(path = "/archive/stats", method = RequestMethod.GET)
+    public ResponseEntity<?> blockArchiveStats() {
+        return new ResponseEntity<>(service.getBlockArchive().getStats(), HttpStatus.OK);
+    }
+
+    /**
+     * Initializes the channel, so that new blocks are delivered to the archive. Lookups are served from the archive
+     * as it is, they do not wait for missing blocks.
+     */
+    private void startArchive() throws Exception {
+        service.setupClient();
+        // First retrieve LambdaUser's credentials, the user context is passed with the request
+        FabricUser user = service.getUserContext(AMBConfig.LAMBDAUSER);
+        service.initChannel(user);
+    }
+
     /**
      * Query a car by carId on Fabcar chaincode
      *
@@ -152,22 +610,24 @@ public class ApiController {
             log.debug("Querying car by carId:" + carId);
 
             service.setupClient();
-            // First retrieve LambdaUser's credentials and set user context
-            service.setUser(AMBConfig.LAMBDAUSER);
-            service.initChannel();
+            // First retrieve LambdaUser's credentials, the user context is passed with the request
+            FabricUser user = service.getUserContext(AMBConfig.LAMBDAUSER);
+            service.initChannel(user);
 
             // query chaincode
-            String res = service.queryChaincode(service.getClient(), service.getChannel(),
+            byte[] payload = service.queryChaincodePayload(service.getClient(), service.getChannel(), user,
                     "fabcar", "queryCar", carId);
 
-            // convert the response into Car object
-            ObjectMapper objectMapper = new ObjectMapper();
-            Car car = objectMapper.readValue(res, Car.class);
+            // convert the response into Car object, read from and written to bytes with the shared reader/writer
+            Car car = CAR_READER.readValue(payload);
             car.setId(carId);
-            return new ResponseEntity<>(car, HttpStatus.OK);
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(CAR_WRITER.writeValueAsBytes(car));
         } catch (EnrollmentNotFoundException | AppException e){
             log.error("Error while querying - " + e.getMessage());
             return new ResponseEntity<>("Error querying car - " + e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (CircuitOpenException e) {
+            log.error("Error querying car, " + e.getMessage());
+            return new ResponseEntity<>("Error querying car - " + e.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
         } catch (ManagedBlockchainServiceException e) {
             log.error("Error querying car, ManagedBlockchainService startup failed - " + e.getMessage());
             return new ResponseEntity<>("Error querying car, ManagedBlockchainService startup failed - "
@@ -179,33 +639,445 @@ public class ApiController {
         }
     }
 
+    /**
+     * Query the history of a car, oldest change first, one page at a time. Committed history never changes: a page
+     * holding pageSize records is returned with an immutable Cache-Control header, the last, partial page is not
+     * cached as later changes are appended to it.
+     *
+     * @param carId The id of the car
+     * @param start (optional) index of the first record of the page, 0 by default
+     * @param pageSize (optional) number of records of the page, at most QUERY_PAGE_SIZE_MAX
+     * @return HistoryPage json object, next is the start of the next page and is omitted on the last page
+     */
+    @RequestMapping(path = "/cars/{carId}/history", method = RequestMethod.GET)
+    public ResponseEntity<?> queryFabcarHistory(@PathVariable(name = "carId") String carId,
+                                                @RequestParam(defaultValue = "0") int start,
+                                                @RequestParam(required = false) Integer pageSize) {
+        try {
+            log.debug("Querying car history - carId:" + carId + " start:" + start);
+            if (start < 0) {
+                return new ResponseEntity<>("Error querying car history - start must not be negative", HttpStatus.BAD_REQUEST);
+            }
+            int size = pageSize == null ? AMBConfig.QUERY_PAGE_SIZE : Math.max(1, Math.min(pageSize, AMBConfig.QUERY_PAGE_SIZE_MAX));
+
+            service.setupClient();
+            // First retrieve LambdaUser's credentials, the user context is passed with the request
+            FabricUser user = service.getUserContext(AMBConfig.LAMBDAUSER);
+            service.initChannel(user);
+
+            KeyHistoryCache.History history = service.getCarHistory(service.getClient(), service.getChannel(), user, carId);
+            List<HistoryRecord> records = history.getRecords();
+            int total = records.size();
+            int end = (int) Math.min((long) start + size, total);
+            boolean complete = (long) start + size <= total;
+            HistoryPage page = new HistoryPage(carId, history.getBlockNumber(), total, start,
+                    start < total ? new ArrayList<>(records.subList(start, end)) : Collections.emptyList(),
+                    end < total ? end : null);
+
+            return ResponseEntity.ok()
+                    .header(BLOCK_NUMBER_HEADER, String.valueOf(history.getBlockNumber()))
+                    .header(HttpHeaders.CACHE_CONTROL, complete ? IMMUTABLE_CACHE_CONTROL : "no-cache")
+                    .body(page);
+        } catch (EnrollmentNotFoundException | AppException e){
+            log.error("Error while querying car history - " + e.getMessage());
+            return new ResponseEntity<>("Error querying car history - " + e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (CircuitOpenException e) {
+            log.error("Error querying car history, " + e.getMessage());
+            return new ResponseEntity<>("Error querying car history - " + e.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
+        } catch (ManagedBlockchainServiceException e) {
+            log.error("Error querying car history, ManagedBlockchainService startup failed - " + e.getMessage());
+            return new ResponseEntity<>("Error querying car history, ManagedBlockchainService startup failed - "
+                    + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (Exception e) {
+            log.error("Error while querying - function:" + AMBConfig.CAR_HISTORY_FUNCTION + " chaincode:"
+                    + AMBConfig.CAR_HISTORY_CHAINCODE);
+            e.printStackTrace();
+            return new ResponseEntity<>("Error querying car history, chaincode query failed", HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Returns hit/miss and append counters of the car history cache
+     *
+     * @return json object with the history cache counters
+     */
+    @RequestMapping(path = "/history-cache/stats", method = RequestMethod.GET)
+    public ResponseEntity<?> carHistoryStats() {
+        return new ResponseEntity<>(service.getHistoryCache().getStats(), HttpStatus.OK);
+    }
+
+    /**
+     * Long poll for chaincode events: the response is sent as soon as events matching the chaincode name and event
+     * name pattern are delivered, or with no events once the timeout expires. The returned cursor is passed as
+     * {@code from} to the next poll; a lagged response means events were lost and the state should be read again.
+     *
+     * @param chaincodeName Name of the chaincode emitting the events
+     * @param eventName (optional) regular expression the event names must match, any event by default
+     * @param from (optional) cursor returned by the previous poll, the next events are returned by default
+     * @param limit (optional) maximum number of events returned, at most QUERY_PAGE_SIZE_MAX
+     * @param timeout (optional) maximum wait in milliseconds, at most EVENTS_POLL_MAX_TIMEOUT_MS
+     * @return EventBatch json object
+     */
+    @RequestMapping(path = "/events", method = RequestMethod.GET)
+    public CompletableFuture<ResponseEntity<?>> pollEvents(@RequestParam String chaincodeName,
+                                                           @RequestParam(required = false) String eventName,
+                                                           @RequestParam(required = false) String from,
+                                                           @RequestParam(required = false) Integer limit,
+                                                           @RequestParam(required = false) Long timeout) {
+        try {
+            log.debug("Polling chaincode events - chaincodeName:" + chaincodeName + " eventName:" + eventName
+                    + " from:" + from);
+            ChaincodeEventHub hub = service.getEventHub();
+            if (!hub.isEnabled()) {
+                return CompletableFuture.completedFuture(new ResponseEntity<>(
+                        "Chaincode events are disabled, set EVENTS_ENABLED to enable them", HttpStatus.NOT_FOUND));
+            }
+            int max = limit == null ? AMBConfig.QUERY_PAGE_SIZE : Math.max(1, Math.min(limit, AMBConfig.QUERY_PAGE_SIZE_MAX));
+            long wait = timeout == null ? AMBConfig.EVENTS_POLL_TIMEOUT_MS
+                    : Math.max(0, Math.min(timeout, AMBConfig.EVENTS_POLL_MAX_TIMEOUT_MS));
+
+            // the channel delivers blocks to the hub once it is initialized
+            service.setupClient();
+            FabricUser user = service.getUserContext(AMBConfig.LAMBDAUSER);
+            service.initChannel(user);
+
+            CompletableFuture<EventBatch> batch = hub.poll(ChaincodeEventHub.Filter.of(chaincodeName, eventName), from,
+                    max, wait);
+            if (batch == null) {
+                return CompletableFuture.completedFuture(new ResponseEntity<>(
+                        "Error polling chaincode events - too many subscribers", HttpStatus.TOO_MANY_REQUESTS));
+            }
+            return batch.thenApply(events -> new ResponseEntity<>(events, HttpStatus.OK));
+        } catch (EnrollmentNotFoundException | AppException e){
+            log.error("Error while polling chaincode events - " + e.getMessage());
+            return CompletableFuture.completedFuture(new ResponseEntity<>("Error polling chaincode events - "
+                    + e.getMessage(), HttpStatus.BAD_REQUEST));
+        } catch (CircuitOpenException e) {
+            log.error("Error polling chaincode events, " + e.getMessage());
+            return CompletableFuture.completedFuture(new ResponseEntity<>("Error polling chaincode events - "
+                    + e.getMessage(), HttpStatus.SERVICE_UNAVAILABLE));
+        } catch (ManagedBlockchainServiceException e) {
+            log.error("Error polling chaincode events, ManagedBlockchainService startup failed - " + e.getMessage());
+            return CompletableFuture.completedFuture(new ResponseEntity<>("Error polling chaincode events, "
+                    + "ManagedBlockchainService startup failed - " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR));
+        } catch (Exception e) {
+            log.error("Error while polling chaincode events - chaincode:" + chaincodeName);
+            e.printStackTrace();
+            return CompletableFuture.completedFuture(new ResponseEntity<>("Error polling chaincode events",
+                    HttpStatus.INTERNAL_SERVER_ERROR));
+        }
+    }
+
+    /**
+     * Stream chaincode events as server-sent events, for clients of the application run as a server: API Gateway
+     * buffers Lambda responses, Lambda clients use the long poll endpoint. Each event is sent with its cursor as
+     * id, a reconnecting client sends it back in the Last-Event-ID header and receives the buffered events after it.
+     * A "lag" event reports events dropped because the client did not keep up, or lost before a resume cursor.
+     *
+     * @param chaincodeName Name of the chaincode emitting the events
+     * @param eventName (optional) regular expression the event names must match, any event by default
+     * @param from (optional) cursor to resume from, the Last-Event-ID header takes precedence
+     * @param lastEventId (optional) id of the last event received before reconnecting
+     */
+    @RequestMapping(path = "/events/stream", method = RequestMethod.GET, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamEvents(@RequestParam String chaincodeName,
+                                   @RequestParam(required = false) String eventName,
+                                   @RequestParam(required = false) String from,
+                                   @RequestHeader(value = LAST_EVENT_ID_HEADER, required = false) String lastEventId,
+                                   HttpServletResponse response) throws IOException {
+        try {
+            log.debug("Streaming chaincode events - chaincodeName:" + chaincodeName + " eventName:" + eventName);
+            ChaincodeEventHub hub = service.getEventHub();
+            if (!hub.isEnabled()) {
+                writeStreamError(response, 0, HttpStatus.NOT_FOUND,
+                        "Chaincode events are disabled, set EVENTS_ENABLED to enable them");
+                return null;
+            }
+
+            // the channel delivers blocks to the hub once it is initialized
+            service.setupClient();
+            FabricUser user = service.getUserContext(AMBConfig.LAMBDAUSER);
+            service.initChannel(user);
+
+            SseEmitter emitter = new SseEmitter(AMBConfig.EVENTS_STREAM_TIMEOUT_MS);
+            ChaincodeEventHub.Subscription subscription = hub.subscribe(
+                    ChaincodeEventHub.Filter.of(chaincodeName, eventName),
+                    lastEventId != null ? lastEventId : from, s -> sendEvents(hub, s, emitter));
+            if (subscription == null) {
+                writeStreamError(response, 0, HttpStatus.TOO_MANY_REQUESTS,
+                        "Error streaming chaincode events - too many subscribers");
+                return null;
+            }
+            emitter.onCompletion(() -> hub.unsubscribe(subscription));
+            emitter.onTimeout(() -> hub.unsubscribe(subscription));
+            emitter.onError(e -> hub.unsubscribe(subscription));
+            return emitter;
+        } catch (EnrollmentNotFoundException | AppException e){
+            log.error("Error while streaming chaincode events - " + e.getMessage());
+            writeStreamError(response, 0, HttpStatus.BAD_REQUEST, "Error streaming chaincode events - " + e.getMessage());
+        } catch (CircuitOpenException e) {
+            log.error("Error streaming chaincode events, " + e.getMessage());
+            writeStreamError(response, 0, HttpStatus.SERVICE_UNAVAILABLE, "Error streaming chaincode events - " + e.getMessage());
+        } catch (ManagedBlockchainServiceException e) {
+            log.error("Error streaming chaincode events, ManagedBlockchainService startup failed - " + e.getMessage());
+            writeStreamError(response, 0, HttpStatus.INTERNAL_SERVER_ERROR,
+                    "Error streaming chaincode events, ManagedBlockchainService startup failed - " + e.getMessage());
+        } catch (Exception e) {
+            log.error("Error while streaming chaincode events - chaincode:" + chaincodeName);
+            e.printStackTrace();
+            writeStreamError(response, 0, HttpStatus.INTERNAL_SERVER_ERROR, "Error streaming chaincode events");
+        }
+        return null;
+    }
+
+    /**
+     * Sends the events buffered for a stream subscription, a client that went away is unsubscribed
+     */
+    private static void sendEvents(ChaincodeEventHub hub, ChaincodeEventHub.Subscription subscription,
+                                   SseEmitter emitter) {
+        try {
+            long dropped = subscription.takeDropped();
+            boolean lagged = subscription.takeLagged();
+            if (dropped > 0 || lagged) {
+                Map<String, Object> lag = new LinkedHashMap<>();
+                lag.put("dropped", dropped);
+                lag.put("lagged", lagged);
+                emitter.send(SseEmitter.event().name("lag").data(lag, MediaType.APPLICATION_JSON));
+            }
+            for (ChaincodeEventRecord event : subscription.take()) {
+                emitter.send(SseEmitter.event().id(ChaincodeEventHub.cursorAfter(event))
+                        .data(event, MediaType.APPLICATION_JSON));
+            }
+        } catch (IOException | IllegalStateException e) {
+            log.debug("Chaincode event stream closed - " + e.getMessage());
+            // the emitter is completed by the container once the send failed
+            hub.unsubscribe(subscription);
+        }
+    }
+
+    /**
+     * Returns the chaincode event counters (buffered events, subscribers, dropped and lagged deliveries)
+     *
+     * @return json object with the event counters
+     */
+    @RequestMapping(path = "/events/stats", method = RequestMethod.GET)
+    public ResponseEntity<?> eventStats() {
+        return new ResponseEntity<>(service.getEventHub().getStats(), HttpStatus.OK);
+    }
+
+    /**
+     * Query a list of cars by carId on Fabcar chaincode, the queries are sent concurrently
+     *
+     * @param batchRequest CarBatchRequest object containing:
+     *                     - carIds: list of car ids to query
+     * @return list of per car results, in the order of the car ids
+     */
+    @RequestMapping(path = "/cars/batch-get", method = RequestMethod.POST)
+    public ResponseEntity<?> queryFabcarBatch(@RequestBody @Valid CarBatchRequest batchRequest) {
+        try {
+            List<String> carIds = batchRequest.getCarIds();
+            log.debug("Querying cars by carId - cars:" + carIds.size());
+            if (carIds.size() > AMBConfig.QUERY_BATCH_MAX_SIZE) {
+                return new ResponseEntity<>("Batch too large - at most " + AMBConfig.QUERY_BATCH_MAX_SIZE
+                        + " cars per request", HttpStatus.BAD_REQUEST);
+            }
+
+            service.setupClient();
+            // First retrieve LambdaUser's credentials, the user context is passed with the request
+            FabricUser user = service.getUserContext(AMBConfig.LAMBDAUSER);
+            service.initChannel(user);
+
+            List<QueryRequest> queries = new ArrayList<>(carIds.size());
+            for (String carId : carIds) {
+                QueryRequest query = new QueryRequest();
+                query.setChaincodeName("fabcar");
+                query.setFunctionName("queryCar");
+                query.setArgList(Collections.singletonList(carId));
+                queries.add(query);
+            }
+            List<CompletableFuture<byte[]>> futures = service.queryChaincodeBatch(service.getClient(),
+                    service.getChannel(), user, queries);
+
+            List<BatchItemResult> results = new ArrayList<>(futures.size());
+            for (int i = 0; i < futures.size(); i++) {
+                String carId = carIds.get(i);
+                try {
+                    // convert the response into Car object
+                    Car car = CAR_READER.readValue(futures.get(i).join());
+                    car.setId(carId);
+                    results.add(new BatchItemResult(carId, HttpStatus.OK.value(), car, null));
+                } catch (CompletionException e) {
+                    results.add(batchFailure(carId, e.getCause()));
+                } catch (IOException e) {
+                    results.add(batchFailure(carId, e));
+                }
+            }
+            return new ResponseEntity<>(results, HttpStatus.OK);
+        } catch (EnrollmentNotFoundException | AppException e){
+            log.error("Error while querying - " + e.getMessage());
+            return new ResponseEntity<>("Error querying cars - " + e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (CircuitOpenException e) {
+            log.error("Error querying cars, " + e.getMessage());
+            return new ResponseEntity<>("Error querying cars - " + e.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
+        } catch (ManagedBlockchainServiceException e) {
+            log.error("Error querying cars, ManagedBlockchainService startup failed - " + e.getMessage());
+            return new ResponseEntity<>("Error querying cars, ManagedBlockchainService startup failed - "
+                    + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (Exception e) {
+            log.error("Error while querying in batch - function:queryCar chaincode:fabcar");
+            e.printStackTrace();
+            return new ResponseEntity<>("Error querying cars, chaincode query failed", HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Query cars by owner, make and/or colour from the local car view, without calling the peers. The view is
+     * loaded on first use and kept current from the blocks delivered to this instance.
+     *
+     * @param owner (optional) owner of the cars, case insensitive
+     * @param make (optional) make of the cars, case insensitive
+     * @param colour (optional) colour of the cars, case insensitive
+     * @param limit (optional) maximum number of cars returned, at most CAR_VIEW_MAX_RESULTS
+     * @return json object with the block number the view is current to and the cars, sorted by id
+     */
+    @RequestMapping(path = "/view/cars", method = RequestMethod.GET)
+    public ResponseEntity<?> queryCarView(@RequestParam(required = false) String owner,
+                                          @RequestParam(required = false) String make,
+                                          @RequestParam(required = false) String colour,
+                                          @RequestParam(required = false) Integer limit) {
+        try {
+            log.debug("Querying car view - owner:" + owner + " make:" + make + " colour:" + colour);
+            CarView view = service.getCarView();
+            if (!view.isEnabled()) {
+                return new ResponseEntity<>("Car view is disabled, set CAR_VIEW_ENABLED to enable it", HttpStatus.NOT_FOUND);
+            }
+            loadCarView();
+
+            int max = limit == null ? AMBConfig.CAR_VIEW_MAX_RESULTS
+                    : Math.max(1, Math.min(limit, AMBConfig.CAR_VIEW_MAX_RESULTS));
+            CarView.Result result = view.find(owner, make, colour, max);
+            return ResponseEntity.ok().header(BLOCK_NUMBER_HEADER, String.valueOf(result.getBlockNumber())).body(result);
+        } catch (EnrollmentNotFoundException | AppException e){
+            log.error("Error while loading car view - " + e.getMessage());
+            return new ResponseEntity<>("Error loading car view - " + e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (CircuitOpenException e) {
+            log.error("Error loading car view, " + e.getMessage());
+            return new ResponseEntity<>("Error loading car view - " + e.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
+        } catch (ManagedBlockchainServiceException e) {
+            log.error("Error loading car view, ManagedBlockchainService startup failed - " + e.getMessage());
+            return new ResponseEntity<>("Error loading car view, ManagedBlockchainService startup failed - "
+                    + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (Exception e) {
+            log.error("Error while loading car view - function:" + AMBConfig.CAR_VIEW_LOAD_FUNCTION);
+            e.printStackTrace();
+            return new ResponseEntity<>("Error loading car view, chaincode query failed", HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Query a car by carId from the local car view, see queryCarView()
+     *
+     * @param carId The id of the car to query
+     * @return Car json object, the block number the view is current to in the X-Block-Number header
+     */
+    @RequestMapping(path = "/view/cars/{carId}", method = RequestMethod.GET)
+    public ResponseEntity<?> queryCarViewById(@PathVariable(name = "carId") String carId) {
+        try {
+            log.debug("Querying car view by carId:" + carId);
+            CarView view = service.getCarView();
+            if (!view.isEnabled()) {
+                return new ResponseEntity<>("Car view is disabled, set CAR_VIEW_ENABLED to enable it", HttpStatus.NOT_FOUND);
+            }
+            loadCarView();
+
+            long blockNumber = view.getBlockNumber();
+            Car car = view.get(carId);
+            if (car == null) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).header(BLOCK_NUMBER_HEADER, String.valueOf(blockNumber))
+                        .body("Car not found - carId:" + carId);
+            }
+            return ResponseEntity.ok().header(BLOCK_NUMBER_HEADER, String.valueOf(blockNumber)).body(car);
+        } catch (EnrollmentNotFoundException | AppException e){
+            log.error("Error while loading car view - " + e.getMessage());
+            return new ResponseEntity<>("Error loading car view - " + e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (CircuitOpenException e) {
+            log.error("Error loading car view, " + e.getMessage());
+            return new ResponseEntity<>("Error loading car view - " + e.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
+        } catch (ManagedBlockchainServiceException e) {
+            log.error("Error loading car view, ManagedBlockchainService startup failed - " + e.getMessage());
+            return new ResponseEntity<>("Error loading car view, ManagedBlockchainService startup failed - "
+                    + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (Exception e) {
+            log.error("Error while loading car view - function:" + AMBConfig.CAR_VIEW_LOAD_FUNCTION);
+            e.printStackTrace();
+            return new ResponseEntity<>("Error loading car view, chaincode query failed", HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Returns the car view counters (cars, index sizes, block number)
+     *
+     * @return json object with the view counters
+     */
+    @RequestMapping(path = "/view/stats", method = RequestMethod.GET)
+    public ResponseEntity<?> carViewStats() {
+        return new ResponseEntity<>(service.getCarView().getStats(), HttpStatus.OK);
+    }
+
+    /**
+     * Initializes the channel, so that blocks are delivered to the view, and loads the view on first use and after
+     * a delivery gap
+     */
+    private void loadCarView() throws Exception {
+        if (service.getCarView().isLoaded()) {
+            return;
+        }
+        service.setupClient();
+        // First retrieve LambdaUser's credentials, the user context is passed with the request
+        FabricUser user = service.getUserContext(AMBConfig.LAMBDAUSER);
+        service.initChannel(user);
+        service.loadCarView(user);
+    }
+
     /**
      * Inserts a new Car by invoking the `createCar` function in Fabcar chaincode
      *
      * @param car json object to insert
+     * @param idempotencyKey (optional) a repeated request with the same key returns the transaction id of the first
+     *                       one instead of inserting the car again
      * @return
      */
     @RequestMapping(path = "/cars", method = RequestMethod.POST)
-    public ResponseEntity<?> invokeFabcar(@RequestBody @Valid Car car) {
+    public ResponseEntity<?> invokeFabcar(@RequestBody @Valid Car car,
+                                          @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
         try {
             log.debug("Inserting new Car:" + car.toString());
 
             service.setupClient();
-            // First retrieve LambdaUser's credentials and set user context
-            service.setUser(AMBConfig.LAMBDAUSER);
-            service.initChannel();
+            // First retrieve LambdaUser's credentials, the user context is passed with the request
+            FabricUser user = service.getUserContext(AMBConfig.LAMBDAUSER);
+            service.initChannel(user);
 
             // build arguments list required by the chaincode
             String[] arguments = {car.getId(), car.getMake(), car.getModel(), car.getColour(), car.getOwner()};
 
             // invoke createCar function on fabcar chaincode
-            service.invokeChaincode(service.getClient(), service.getChannel(), "fabcar",
-                    "createCar", arguments);
+            String txId = service.invokeChaincode(service.getClient(), service.getChannel(), user, idempotencyKey,
+                    "fabcar", "createCar", arguments);
 
-            return new ResponseEntity<>("Car created successfully", HttpStatus.ACCEPTED);
+            return accepted(txId);
+        } catch (IdempotencyConflictException e) {
+            log.error("Error creating car - " + e.getMessage());
+            return new ResponseEntity<>("Error creating car - " + e.getMessage(), HttpStatus.UNPROCESSABLE_ENTITY);
         } catch (EnrollmentNotFoundException | AppException e){
             log.error("Error creating car - " + e.getMessage());
             return new ResponseEntity<>("Error creating car - " + e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (PipelineFullException e) {
+            log.error("Error creating car, " + e.getMessage());
+            return new ResponseEntity<>("Error creating car - " + e.getMessage(), HttpStatus.TOO_MANY_REQUESTS);
+        } catch (CircuitOpenException e) {
+            log.error("Error creating car, " + e.getMessage());
+            return new ResponseEntity<>("Error creating car - " + e.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
         } catch (ManagedBlockchainServiceException e) {
             log.error("Error creating car, ManagedBlockchainService startup failed - " + e.getMessage());
             return new ResponseEntity<>("Error creating car, ManagedBlockchainService startup failed - "
@@ -216,4 +1088,322 @@ public class ApiController {
             return new ResponseEntity<>("Error creating car, chaincode invocation failed", HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Inserts a fleet of cars from an NDJSON (one Car JSON object per line) or CSV (id,make,model,colour,owner)
+     * body, selected by the Content-Type. Records are read and validated one at a time and submitted through the
+     * write pipeline as they are read, the response lists the txId or the error of each record.
+     *
+     * @param request the request, its body is read as a stream
+     * @return BulkImportResult json object
+     */
+    @RequestMapping(path = "/cars/bulk", method = RequestMethod.POST)
+    public ResponseEntity<?> importFabcar(HttpServletRequest request) {
+        try {
+            String contentType = request.getContentType() == null ? "" : request.getContentType().toLowerCase(Locale.ROOT);
+            boolean csv = contentType.contains("csv");
+            log.debug("Importing cars - format:" + (csv ? "csv" : "ndjson"));
+
+            service.setupClient();
+            // First retrieve LambdaUser's credentials, the user context is passed with the request
+            FabricUser user = service.getUserContext(AMBConfig.LAMBDAUSER);
+            service.initChannel(user);
+
+            List<BatchItemResult> results = new ArrayList<>();
+            List<Integer> pendingIndexes = new ArrayList<>();
+            List<String> pendingKeys = new ArrayList<>();
+            List<CompletableFuture<String>> pending = new ArrayList<>();
+            boolean truncated = false;
+
+            try (CarRecordReader reader = new CarRecordReader(request.getInputStream(), csv, CAR_READER)) {
+                CarRecordReader.Record record;
+                while ((record = reader.next()) != null) {
+                    if (results.size() >= AMBConfig.BULK_IMPORT_MAX_RECORDS) {
+                        truncated = true;
+                        break;
+                    }
+                    Car car = record.getCar();
+                    String key = car != null && car.getId() != null ? car.getId() : "line " + record.getLine();
+                    String error = record.getError() != null ? record.getError() : validate(car);
+                    if (error != null) {
+                        results.add(new BatchItemResult(key, HttpStatus.BAD_REQUEST.value(), null,
+                                "Line " + record.getLine() + " - " + error));
+                        continue;
+                    }
+
+                    String[] arguments = {car.getId(), car.getMake(), car.getModel(), car.getColour(), car.getOwner()};
+                    try {
+                        pending.add(submitBulkRecord(user, arguments));
+                        pendingIndexes.add(results.size());
+                        pendingKeys.add(key);
+                        results.add(null);
+                    } catch (ManagedBlockchainServiceException e) {
+                        results.add(bulkFailure(key, e));
+                    }
+                }
+            }
+
+            // records were queued while reading, collect the transaction ids once the body is consumed
+            for (int i = 0; i < pending.size(); i++) {
+                int index = pendingIndexes.get(i);
+                String key = pendingKeys.get(i);
+                try {
+                    String txId = pending.get(i).join();
+                    results.set(index, new BatchItemResult(key, HttpStatus.ACCEPTED.value(),
+                            new TransactionStatus(txId, TransactionStatus.PENDING), null));
+                } catch (CompletionException e) {
+                    results.set(index, bulkFailure(key, e.getCause()));
+                }
+            }
+            BulkImportResult summary = new BulkImportResult(results, truncated);
+            log.info("Cars imported - " + summary);
+            return new ResponseEntity<>(summary, HttpStatus.OK);
+        } catch (EnrollmentNotFoundException | AppException e){
+            log.error("Error importing cars - " + e.getMessage());
+            return new ResponseEntity<>("Error importing cars - " + e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (CircuitOpenException e) {
+            log.error("Error importing cars, " + e.getMessage());
+            return new ResponseEntity<>("Error importing cars - " + e.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
+        } catch (ManagedBlockchainServiceException e) {
+            log.error("Error importing cars, ManagedBlockchainService startup failed - " + e.getMessage());
+            return new ResponseEntity<>("Error importing cars, ManagedBlockchainService startup failed - "
+                    + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (Exception e) {
+            log.error("Error while importing - function:createCar chaincode:fabcar");
+            e.printStackTrace();
+            return new ResponseEntity<>("Error importing cars", HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Queues a bulk record in the write pipeline, waiting for a slot a few times while the window is full
+     */
+    private CompletableFuture<String> submitBulkRecord(FabricUser user, String[] arguments)
+            throws ManagedBlockchainServiceException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return service.invokeChaincodeAsync(service.getClient(), service.getChannel(), user, "fabcar",
+                        "createCar", arguments);
+            } catch (PipelineFullException e) {
+                if (attempt >= BULK_SUBMIT_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Bean validation of a bulk record
+     *
+     * @return String: violations, null if the car is valid
+     */
+    private static String validate(Car car) {
+        Set<ConstraintViolation<Car>> violations = ValidatorHolder.VALIDATOR.validate(car);
+        if (violations.isEmpty()) {
+            return null;
+        }
+        StringBuilder message = new StringBuilder();
+        for (ConstraintViolation<Car> violation : violations) {
+            if (message.length() > 0) {
+                message.append(", ");
+            }
+            message.append(violation.getPropertyPath()).append(' ').append(violation.getMessage());
+        }
+        return message.toString();
+    }
+
+    /**
+     * Maps the failure of a single bulk record to the status code the invoke endpoints return
+     */
+    private static BatchItemResult bulkFailure(String key, Throwable e) {
+        log.error("Bulk record " + key + " failed - " + e.getMessage());
+        if (e instanceof PipelineFullException) {
+            return new BatchItemResult(key, HttpStatus.TOO_MANY_REQUESTS.value(), null, e.getMessage());
+        }
+        if (e instanceof CircuitOpenException) {
+            return new BatchItemResult(key, HttpStatus.SERVICE_UNAVAILABLE.value(), null, e.getMessage());
+        }
+        if (e instanceof ManagedBlockchainServiceException) {
+            return new BatchItemResult(key, HttpStatus.INTERNAL_SERVER_ERROR.value(), null,
+                    "ManagedBlockchainService failure - " + e.getMessage());
+        }
+        return new BatchItemResult(key, HttpStatus.INTERNAL_SERVER_ERROR.value(), null,
+                "Chaincode invocation failed - " + e.getMessage());
+    }
+
+    /**
+     * Inserts a new Car in commit-wait mode, selected with the X-Commit-Wait header, see invokeAndWait()
+     */
+    @RequestMapping(path = "/cars", method = RequestMethod.POST, headers = COMMIT_WAIT_HEADER)
+    public CompletableFuture<ResponseEntity<?>> invokeFabcarAndWait(@RequestBody @Valid Car car,
+                                                                    @RequestHeader(COMMIT_WAIT_HEADER) String commitWait,
+                                                                    @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false)
+                                                                            String idempotencyKey) {
+        log.debug("Inserting new Car in commit-wait mode:" + car.toString());
+        String[] arguments = {car.getId(), car.getMake(), car.getModel(), car.getColour(), car.getOwner()};
+        return invokeAndWait(idempotencyKey, "fabcar", "createCar", arguments, commitWait, "creating car");
+    }
+
+    /**
+     * Inserts a new Car in commit-wait mode, selected with the commitWait parameter, see invokeAndWait()
+     */
+    @RequestMapping(path = "/cars", method = RequestMethod.POST, params = COMMIT_WAIT_PARAM,
+            headers = "!" + COMMIT_WAIT_HEADER)
+    public CompletableFuture<ResponseEntity<?>> invokeFabcarAndWaitParam(@RequestBody @Valid Car car,
+                                                                         @RequestParam(COMMIT_WAIT_PARAM) String commitWait,
+                                                                         @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false)
+                                                                                 String idempotencyKey) {
+        return invokeFabcarAndWait(car, commitWait, idempotencyKey);
+    }
+
+    /**
+     * Invokes chaincode and completes the response once the commit status is known. The request thread is released
+     * right away, endorsement and orderer submission run on the service invoke executor and no thread is held
+     * while the commit is pending. A repeated request with the same idempotency key waits for the commit of the
+     * first one.
+     */
+    private CompletableFuture<ResponseEntity<?>> invokeAndWait(String idempotencyKey, String chaincodeName,
+                                                               String functionName, String[] arguments,
+                                                               String commitWait, String action) {
+        try {
+            service.setupClient();
+            // First retrieve LambdaUser's credentials, the user context is passed with the request
+            FabricUser user = service.getUserContext(AMBConfig.LAMBDAUSER);
+            service.initChannel(user);
+
+            long timeout = commitWaitTimeout(commitWait);
+            if (timeout <= 0) {
+                String txId = service.invokeChaincode(service.getClient(), service.getChannel(), user,
+                        idempotencyKey, chaincodeName, functionName, arguments);
+                return CompletableFuture.<ResponseEntity<?>>completedFuture(accepted(txId));
+            }
+            return service.invokeChaincodeAndWait(service.getClient(), service.getChannel(), user,
+                    idempotencyKey, chaincodeName, functionName, arguments, timeout)
+                    .<ResponseEntity<?>>thenApply(ApiController::committed)
+                    .exceptionally(e -> invokeFailure(e instanceof CompletionException ? e.getCause() : e, action));
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture(invokeFailure(e, action));
+        }
+    }
+
+    /**
+     * Response of a commit-wait invoke: 200 once committed, 409 if invalidated, 500 if the transaction never reached
+     * a block and 202 if it is still pending after the timeout
+     */
+    private static ResponseEntity<?> committed(TransactionStatus status) {
+        if (status == null) {
+            // no longer tracked, the status can still be read from GET /transactions/{txId}
+            return new ResponseEntity<>(HttpStatus.ACCEPTED);
+        }
+        if (TransactionStatus.PENDING.equals(status.getStatus())) {
+            return accepted(status.getTxId());
+        }
+        if (TransactionStatus.COMMITTED.equals(status.getStatus())) {
+            return new ResponseEntity<>(status, HttpStatus.OK);
+        }
+        if (TransactionStatus.INVALID.equals(status.getStatus())) {
+            return new ResponseEntity<>(status, HttpStatus.CONFLICT);
+        }
+        return new ResponseEntity<>(status, HttpStatus.INTERNAL_SERVER_ERROR);
+    }
+
+    /**
+     * Maps an invoke failure to the status code the invoke endpoints return
+     */
+    private static ResponseEntity<?> invokeFailure(Throwable e, String action) {
+        if (e instanceof IdempotencyConflictException) {
+            log.error("Error " + action + " - " + e.getMessage());
+            return new ResponseEntity<>("Error " + action + " - " + e.getMessage(), HttpStatus.UNPROCESSABLE_ENTITY);
+        }
+        if (e instanceof EnrollmentNotFoundException || e instanceof AppException) {
+            log.error("Error " + action + " - " + e.getMessage());
+            return new ResponseEntity<>("Error " + action + " - " + e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+        if (e instanceof PipelineFullException) {
+            log.error("Error " + action + ", " + e.getMessage());
+            return new ResponseEntity<>("Error " + action + " - " + e.getMessage(), HttpStatus.TOO_MANY_REQUESTS);
+        }
+        if (e instanceof CircuitOpenException) {
+            log.error("Error " + action + ", " + e.getMessage());
+            return new ResponseEntity<>("Error " + action + " - " + e.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        if (e instanceof ManagedBlockchainServiceException) {
+            log.error("Error " + action + ", ManagedBlockchainService startup failed - " + e.getMessage());
+            return new ResponseEntity<>("Error " + action + ", ManagedBlockchainService startup failed - "
+                    + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+        log.error("Error " + action + " - " + e.getMessage());
+        e.printStackTrace();
+        return new ResponseEntity<>("Error " + action + ", chaincode invocation failed", HttpStatus.INTERNAL_SERVER_ERROR);
+    }
+
+    /**
+     * Commit timeout requested by the client, 0 if commit-wait is disabled
+     *
+     * @param commitWait String: "true", "false" or a timeout in milliseconds
+     * @return long: timeout in milliseconds, at most COMMIT_WAIT_MAX_TIMEOUT_MS
+     */
+    private static long commitWaitTimeout(String commitWait) {
+        String value = commitWait == null ? "" : commitWait.trim();
+        if ("false".equalsIgnoreCase(value)) {
+            return 0;
+        }
+        long timeout = AMBConfig.COMMIT_WAIT_TIMEOUT_MS;
+        if (!value.isEmpty() && !"true".equalsIgnoreCase(value)) {
+            try {
+                timeout = Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                log.warn("Invalid commit wait value " + value + ", using default timeout");
+            }
+        }
+        return Math.max(1, Math.min(timeout, AMBConfig.COMMIT_WAIT_MAX_TIMEOUT_MS));
+    }
+
+    /**
+     * 202 response of the invoke endpoints, the transaction id and the location of its status
+     *
+     * @param txId String: id of the submitted transaction
+     * @return
+     */
+    private static ResponseEntity<?> accepted(String txId) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .location(URI.create("/transactions/" + txId))
+                .body(new TransactionStatus(txId, TransactionStatus.PENDING));
+    }
+
+    /**
+     * Content type of a passed through chaincode payload, JSON objects and arrays are detected from their first byte
+     *
+     * @param payload byte[]: chaincode payload
+     * @return MediaType
+     */
+    private static MediaType payloadContentType(byte[] payload) {
+        for (byte b : payload) {
+            if (b == ' ' || b == '\t' || b == '\r' || b == '\n') {
+                continue;
+            }
+            return b == '{' || b == '[' ? MediaType.APPLICATION_JSON : MediaType.TEXT_PLAIN;
+        }
+        return MediaType.TEXT_PLAIN;
+    }
+
+    /**
+     * Maps the failure of a single batch item to the status code the single item endpoints return
+     *
+     * @param key String: item key
+     * @param e Throwable: item failure
+     * @return BatchItemResult
+     */
+    private static BatchItemResult batchFailure(String key, Throwable e) {
+        log.error("Batch item " + key + " failed - " + e.getMessage());
+        if (e instanceof CircuitOpenException) {
+            return new BatchItemResult(key, HttpStatus.SERVICE_UNAVAILABLE.value(), null, e.getMessage());
+        }
+        if (e instanceof ManagedBlockchainServiceException) {
+            return new BatchItemResult(key, HttpStatus.INTERNAL_SERVER_ERROR.value(), null,
+                    "ManagedBlockchainService failure - " + e.getMessage());
+        }
+        return new BatchItemResult(key, HttpStatus.INTERNAL_SERVER_ERROR.value(), null,
+                "Chaincode query failed - " + e.getMessage());
+    }
+}
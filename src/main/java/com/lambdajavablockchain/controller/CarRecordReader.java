@@ -0,0 +1,168 @@
+package com.lambdajavablockchain.controller;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.lambdajavablockchain.model.Car;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Reads Car records one line at a time from an NDJSON or CSV body, the body is never held in memory as a whole.
+ * CSV bodies may start with a header line naming the columns, otherwise columns are id,make,model,colour,owner.
+ * A malformed line is reported as a record with an error and reading continues with the next line.
+ *
+ */
+class CarRecordReader implements Closeable {
+
+    private static final List<String> DEFAULT_COLUMNS = Arrays.asList("id", "make", "model", "colour", "owner");
+
+    /**
+     * A record read from the body, either a car or a parse error
+     */
+    static class Record {
+        private final int line;
+        private final Car car;
+        private final String error;
+
+        private Record(int line, Car car, String error) {
+            this.line = line;
+            this.car = car;
+            this.error = error;
+        }
+
+        int getLine() {
+            return line;
+        }
+
+        Car getCar() {
+            return car;
+        }
+
+        String getError() {
+            return error;
+        }
+    }
+
+    private final BufferedReader reader;
+    private final boolean csv;
+    private final ObjectReader carReader;
+    private List<String> columns = DEFAULT_COLUMNS;
+    private int line;
+
+    /**
+     * @param in InputStream: request body
+     * @param csv boolean: true for CSV, false for NDJSON
+     * @param carReader ObjectReader: reads a Car from a JSON line
+     */
+    CarRecordReader(InputStream in, boolean csv, ObjectReader carReader) {
+        this.reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        this.csv = csv;
+        this.carReader = carReader;
+    }
+
+    /**
+     * Next record of the body, blank lines are skipped
+     *
+     * @return Record, null at the end of the body
+     */
+    Record next() throws IOException {
+        String text;
+        while ((text = reader.readLine()) != null) {
+            line++;
+            if (text.trim().isEmpty()) {
+                continue;
+            }
+            if (!csv) {
+                try {
+                    Car car = carReader.readValue(text);
+                    if (car == null) {
+                        // a JSON null line
+                        return new Record(line, null, "Invalid JSON record - expected an object, found null");
+                    }
+                    return new Record(line, car, null);
+                } catch (IOException e) {
+                    return new Record(line, null, "Invalid JSON record - " + e.getMessage());
+                }
+            }
+
+            List<String> fields = splitCsv(text);
+            if (line == 1 && isHeader(fields)) {
+                columns = new ArrayList<>();
+                for (String field : fields) {
+                    columns.add(field.trim().toLowerCase(Locale.ROOT));
+                }
+                continue;
+            }
+            if (fields.size() != columns.size()) {
+                return new Record(line, null, "Expected " + columns.size() + " columns, found " + fields.size());
+            }
+            Car car = new Car();
+            for (int i = 0; i < columns.size(); i++) {
+                String value = fields.get(i).trim();
+                switch (columns.get(i)) {
+                    case "id": car.setId(value); break;
+                    case "make": car.setMake(value); break;
+                    case "model": car.setModel(value); break;
+                    case "colour": car.setColour(value); break;
+                    case "owner": car.setOwner(value); break;
+                    default: return new Record(line, null, "Unknown column " + columns.get(i));
+                }
+            }
+            return new Record(line, car, null);
+        }
+        return null;
+    }
+
+    private static boolean isHeader(List<String> fields) {
+        for (String field : fields) {
+            if (!DEFAULT_COLUMNS.contains(field.trim().toLowerCase(Locale.ROOT))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Splits a CSV line, fields may be quoted with double quotes and quotes escaped by doubling them
+     */
+    private static List<String> splitCsv(String text) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < text.length() && text.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
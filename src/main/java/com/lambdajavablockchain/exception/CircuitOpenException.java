@@ -0,0 +1,13 @@
+package com.lambdajavablockchain.exception;
+
+public class CircuitOpenException extends ManagedBlockchainServiceException {
+    private static final long serialVersionUID = 1L;
+
+    public CircuitOpenException(String errorMessage) {
+        super(errorMessage);
+    }
+
+    public CircuitOpenException(String errorMessage, Throwable error) {
+        super(errorMessage, error);
+    }
+}
@@ -0,0 +1,13 @@
+package com.lambdajavablockchain.exception;
+
+public class IdempotencyConflictException extends AppException {
+    private static final long serialVersionUID = 1L;
+
+    public IdempotencyConflictException(String errorMessage) {
+        super(errorMessage);
+    }
+
+    public IdempotencyConflictException(String errorMessage, Throwable error) {
+        super(errorMessage, error);
+    }
+}
@@ -0,0 +1,13 @@
+package com.lambdajavablockchain.exception;
+
+public class PipelineFullException extends ManagedBlockchainServiceException {
+    private static final long serialVersionUID = 1L;
+
+    public PipelineFullException(String errorMessage) {
+        super(errorMessage);
+    }
+
+    public PipelineFullException(String errorMessage, Throwable error) {
+        super(errorMessage, error);
+    }
+}
@@ -1,5 +1,11 @@
 package com.lambdajavablockchain.model;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * AMB Configuration file, set your Amazon Managed Blockchain network parameters here
  *
@@ -36,8 +42,207 @@ public class AMBConfig {
     public static final String ORG1_PEER_0_URL = "grpcs://" + System.getenv("PEER_ENDPOINT");
     public static final String ORG1_PEER_0_EVENTHUB_URL = "grpcs://" + System.getenv("PEER_EVENT_ENDPOINT");
 
+    // Peers of the member used by the application, optional: comma separated list of "peerId=grpcs://endpoint"
+    // entries. Defaults to the single PEER_ID/PEER_ENDPOINT peer
+    public static final Map<String, String> PEERS = parsePeers(getEnv("PEER_ENDPOINTS", ""));
+    // Number of peers a transaction proposal is sent to, must satisfy the chaincode endorsement policy
+    public static final int ENDORSEMENT_PEER_COUNT = (int) getLongEnv("ENDORSEMENT_PEER_COUNT", 1);
+    // Blocks a peer may lag behind the highest known ledger height before queries avoid it
+    public static final long PEER_HEIGHT_LAG_TOLERANCE = getLongEnv("PEER_HEIGHT_LAG_TOLERANCE", 1);
+    public static final long PEER_HEIGHT_REFRESH_MS = getLongEnv("PEER_HEIGHT_REFRESH_MS", 10000);
+
+    // Hedged queries: a second peer is queried when the first one has not answered within the given
+    // percentile of recent query latencies
+    public static final boolean QUERY_HEDGING_ENABLED = Boolean.parseBoolean(getEnv("QUERY_HEDGING_ENABLED", "false"));
+    public static final double QUERY_HEDGE_PERCENTILE = getLongEnv("QUERY_HEDGE_PERCENTILE", 95);
+    public static final long QUERY_HEDGE_MIN_DELAY_MS = getLongEnv("QUERY_HEDGE_MIN_DELAY_MS", 20);
+
+    // Connection health: gRPC keepalive and circuit breaker around peer/orderer calls
+    public static final long GRPC_KEEPALIVE_TIME_MS = getLongEnv("GRPC_KEEPALIVE_TIME_MS", 300000);
+    public static final long GRPC_KEEPALIVE_TIMEOUT_MS = getLongEnv("GRPC_KEEPALIVE_TIMEOUT_MS", 8000);
+    public static final int CIRCUIT_FAILURE_THRESHOLD = (int) getLongEnv("CIRCUIT_FAILURE_THRESHOLD", 3);
+    public static final long CIRCUIT_OPEN_MS = getLongEnv("CIRCUIT_OPEN_MS", 5000);
+
     // Channel & Chaincode info
     public static final String CHANNEL_NAME = System.getenv("CHANNEL_NAME").isEmpty() ? "mychannel" : System.getenv("CHANNEL_NAME");
     public static final String CHAINCODE_NAME = System.getenv("CHAINCODE_NAME").isEmpty() ? "mycc" : System.getenv("CHAINCODE_NAME");
+
+    // Secrets Manager endpoint override, optional (e.g. a local Secrets Manager stand-in)
+    public static final String SECRETS_MANAGER_ENDPOINT = getEnv("SECRETS_MANAGER_ENDPOINT", null);
+
+    // Build the Fabric client, load the Lambda user and initialize the channel during start up, optional
+    public static final boolean PRIME_ON_INIT = Boolean.parseBoolean(getEnv("PRIME_ON_INIT", "false"));
+
+    // Credential store, optional: "secretsmanager", "file" or "memory"
+    public static final String CREDENTIAL_STORE = getEnv("CREDENTIAL_STORE", "secretsmanager");
+    // File credential store properties, the key is a Base64 encoded AES key
+    public static final String CREDENTIAL_STORE_DIR = getEnv("CREDENTIAL_STORE_DIR", "/tmp/fabric-credentials");
+    public static final String CREDENTIAL_STORE_KEY = getEnv("CREDENTIAL_STORE_KEY", null);
+
+    // Enrollment secret format, optional: "legacy" (separate pk/certs secrets) or "combined" (single secret)
+    public static final String ENROLLMENT_SECRET_FORMAT = getEnv("ENROLLMENT_SECRET_FORMAT", "legacy");
+    // Rewrite legacy users to the combined format on first read
+    public static final boolean ENROLLMENT_SECRET_MIGRATE = Boolean.parseBoolean(getEnv("ENROLLMENT_SECRET_MIGRATE", "true"));
+
+    // Enrollment cache properties, optional
+    public static final long ENROLLMENT_CACHE_TTL_SECONDS = getLongEnv("ENROLLMENT_CACHE_TTL_SECONDS", 900);
+    public static final int ENROLLMENT_CACHE_MAX_SIZE = (int) getLongEnv("ENROLLMENT_CACHE_MAX_SIZE", 100);
+
+    // Query result cache properties, optional. Invalidation: "key" (written keys) or "block" (every block)
+    public static final boolean QUERY_CACHE_ENABLED = Boolean.parseBoolean(getEnv("QUERY_CACHE_ENABLED", "false"));
+    public static final int QUERY_CACHE_MAX_ENTRIES = (int) getLongEnv("QUERY_CACHE_MAX_ENTRIES", 1000);
+    public static final String QUERY_CACHE_INVALIDATION = getEnv("QUERY_CACHE_INVALIDATION", "key");
+    // Chaincode functions whose single argument is the ledger key they read
+    public static final List<String> QUERY_CACHE_POINT_READ_FUNCTIONS = getListEnv("QUERY_CACHE_POINT_READ_FUNCTIONS", "queryCar");
+    // Identical concurrent queries share one peer call, optional
+    public static final boolean QUERY_COALESCING_ENABLED = Boolean.parseBoolean(getEnv("QUERY_COALESCING_ENABLED", "true"));
+
+    // Batch query properties, optional
+    public static final int QUERY_BATCH_CONCURRENCY = (int) Math.max(1, getLongEnv("QUERY_BATCH_CONCURRENCY", 16));
+    public static final int QUERY_BATCH_MAX_SIZE = (int) getLongEnv("QUERY_BATCH_MAX_SIZE", 500);
+
+    // Streaming paginated query properties, optional. The byte limit keeps Lambda responses under the 6 MB limit
+    public static final int QUERY_PAGE_SIZE = (int) getLongEnv("QUERY_PAGE_SIZE", 100);
+    public static final int QUERY_PAGE_SIZE_MAX = (int) getLongEnv("QUERY_PAGE_SIZE_MAX", 1000);
+    public static final long QUERY_STREAM_MAX_BYTES = getLongEnv("QUERY_STREAM_MAX_BYTES", 4000000);
+
+    // Number of submitted transactions whose commit status is kept in memory, optional
+    public static final int TRANSACTION_TRACKER_MAX_SIZE = (int) getLongEnv("TRANSACTION_TRACKER_MAX_SIZE", 10000);
+
+    // Commit-wait mode properties, optional. The maximum stays below the 30 seconds API Gateway timeout
+    public static final long COMMIT_WAIT_TIMEOUT_MS = getLongEnv("COMMIT_WAIT_TIMEOUT_MS", 10000);
+    public static final long COMMIT_WAIT_MAX_TIMEOUT_MS = getLongEnv("COMMIT_WAIT_MAX_TIMEOUT_MS", 25000);
+
+    // Write pipeline properties, optional: transactions in flight until commit, wait for a free slot
+    // and number of transactions endorsed/sent to the orderer at the same time. The window bounds the commits
+    // pending in commit-wait mode, a slot is held at most COMMIT_WAIT_MAX_TIMEOUT_MS after the orderer accepted it
+    public static final int INVOKE_PIPELINE_WINDOW = (int) getLongEnv("INVOKE_PIPELINE_WINDOW", 2048);
+    public static final long INVOKE_PIPELINE_WAIT_MS = getLongEnv("INVOKE_PIPELINE_WAIT_MS", 2000);
+    public static final int INVOKE_CONCURRENCY = (int) Math.max(1, getLongEnv("INVOKE_CONCURRENCY", 16));
+    public static final int INVOKE_SUBMIT_CONCURRENCY = (int) Math.max(1, getLongEnv("INVOKE_SUBMIT_CONCURRENCY", 4));
+
+    // Retries of transactions invalidated by a read conflict, optional. The backoff doubles on each retry
+    public static final int INVOKE_MVCC_RETRIES = (int) getLongEnv("INVOKE_MVCC_RETRIES", 3);
+    public static final long INVOKE_MVCC_BACKOFF_MS = getLongEnv("INVOKE_MVCC_BACKOFF_MS", 50);
+    // Serialization of the writes to the same key, optional. Keys are hashed to a fixed number of queues
+    public static final boolean INVOKE_KEY_SERIALIZATION = Boolean.parseBoolean(getEnv("INVOKE_KEY_SERIALIZATION", "false"));
+    public static final int INVOKE_KEY_STRIPES = (int) getLongEnv("INVOKE_KEY_STRIPES", 64);
+    public static final long INVOKE_KEY_WAIT_MS = getLongEnv("INVOKE_KEY_WAIT_MS", 30000);
+
+    // Idempotency keys of the invoke endpoints, optional. A TTL of 0 disables the store
+    public static final long IDEMPOTENCY_TTL_SECONDS = getLongEnv("IDEMPOTENCY_TTL_SECONDS", 3600);
+    public static final int IDEMPOTENCY_MAX_KEYS = (int) getLongEnv("IDEMPOTENCY_MAX_KEYS", 10000);
+
+    // Materialized car view properties, optional. The view is loaded with the load function, then kept current from
+    // the delivered blocks
+    public static final boolean CAR_VIEW_ENABLED = Boolean.parseBoolean(getEnv("CAR_VIEW_ENABLED", "false"));
+    public static final String CAR_VIEW_CHAINCODE = getEnv("CAR_VIEW_CHAINCODE", "fabcar");
+    public static final String CAR_VIEW_LOAD_FUNCTION = getEnv("CAR_VIEW_LOAD_FUNCTION", "queryAllCars");
+    public static final boolean CAR_VIEW_LOAD_PAGINATED = Boolean.parseBoolean(getEnv("CAR_VIEW_LOAD_PAGINATED", "false"));
+    public static final int CAR_VIEW_MAX_RESULTS = (int) getLongEnv("CAR_VIEW_MAX_RESULTS", 1000);
+
+    // Local block archive properties, optional. The log is memory mapped, its size is limited to 2 GB
+    public static final boolean BLOCK_ARCHIVE_ENABLED = Boolean.parseBoolean(getEnv("BLOCK_ARCHIVE_ENABLED", "false"));
+    public static final String BLOCK_ARCHIVE_DIR = getEnv("BLOCK_ARCHIVE_DIR", "/tmp/block-archive");
+    public static final long BLOCK_ARCHIVE_MAX_BYTES = getLongEnv("BLOCK_ARCHIVE_MAX_BYTES", 268435456);
+    public static final long BLOCK_ARCHIVE_START_BLOCK = getLongEnv("BLOCK_ARCHIVE_START_BLOCK", 0);
+    public static final int BLOCK_ARCHIVE_MAX_RESULTS = (int) getLongEnv("BLOCK_ARCHIVE_MAX_RESULTS", 1000);
+
+    // Car history properties, optional. The history function receives the car id and returns the GetHistoryForKey
+    // records of the car as a JSON array
+    public static final String CAR_HISTORY_CHAINCODE = getEnv("CAR_HISTORY_CHAINCODE", "fabcar");
+    public static final String CAR_HISTORY_FUNCTION = getEnv("CAR_HISTORY_FUNCTION", "getHistoryForCar");
+    public static final boolean CAR_HISTORY_CACHE_ENABLED = Boolean.parseBoolean(getEnv("CAR_HISTORY_CACHE_ENABLED", "true"));
+    public static final int CAR_HISTORY_CACHE_MAX_KEYS = (int) getLongEnv("CAR_HISTORY_CACHE_MAX_KEYS", 1000);
+
+    // Chaincode event delivery properties, optional. Long polls wait at most EVENTS_POLL_MAX_TIMEOUT_MS, below the
+    // 30 seconds API Gateway timeout; event streams end after EVENTS_STREAM_TIMEOUT_MS and are resumed by the client
+    public static final boolean EVENTS_ENABLED = Boolean.parseBoolean(getEnv("EVENTS_ENABLED", "false"));
+    public static final int EVENTS_BUFFER_SIZE = (int) getLongEnv("EVENTS_BUFFER_SIZE", 1000);
+    public static final int EVENTS_SUBSCRIBER_BUFFER_SIZE = (int) getLongEnv("EVENTS_SUBSCRIBER_BUFFER_SIZE", 256);
+    public static final int EVENTS_MAX_SUBSCRIBERS = (int) getLongEnv("EVENTS_MAX_SUBSCRIBERS", 100);
+    public static final long EVENTS_POLL_TIMEOUT_MS = getLongEnv("EVENTS_POLL_TIMEOUT_MS", 20000);
+    public static final long EVENTS_POLL_MAX_TIMEOUT_MS = getLongEnv("EVENTS_POLL_MAX_TIMEOUT_MS", 25000);
+    public static final long EVENTS_STREAM_TIMEOUT_MS = getLongEnv("EVENTS_STREAM_TIMEOUT_MS", 300000);
+
+    // Latency metrics properties, optional. EMF log lines are written after each invocation when running in Lambda
+    public static final boolean METRICS_ENABLED = Boolean.parseBoolean(getEnv("METRICS_ENABLED", "true"));
+    public static final boolean METRICS_EMF_ENABLED = Boolean.parseBoolean(getEnv("METRICS_EMF_ENABLED",
+            String.valueOf(System.getenv("AWS_LAMBDA_FUNCTION_NAME") != null)));
+    public static final String METRICS_NAMESPACE = getEnv("METRICS_NAMESPACE", "LambdaJavaBlockchain");
+    public static final int METRICS_MAX_SERIES = (int) getLongEnv("METRICS_MAX_SERIES", 200);
+
+    // Maximum number of records of a bulk import request, optional
+    public static final int BULK_IMPORT_MAX_RECORDS = (int) getLongEnv("BULK_IMPORT_MAX_RECORDS", 10000);
+
+    /**
+     * Parses the list of peers, entries without a name are named after their endpoint
+     *
+     * @param peerEndpoints String: comma separated list of "peerId=grpcs://endpoint" entries
+     * @return Map of peer name to peer URL
+     */
+    private static Map<String, String> parsePeers(String peerEndpoints) {
+        Map<String, String> peers = new LinkedHashMap<>();
+        for (String entry : peerEndpoints.split(",")) {
+            String peer = entry.trim();
+            if (peer.isEmpty()) {
+                continue;
+            }
+            int separator = peer.indexOf('=');
+            String url = separator < 0 ? peer : peer.substring(separator + 1).trim();
+            if (!url.contains("://")) {
+                url = "grpcs://" + url;
+            }
+            peers.put(separator < 0 ? url.substring(url.indexOf("://") + 3) : peer.substring(0, separator).trim(), url);
+        }
+        if (peers.isEmpty()) {
+            peers.put(ORG1_PEER_0, ORG1_PEER_0_URL);
+        }
+        return Collections.unmodifiableMap(peers);
+    }
+
+    /**
+     * Reads an optional environment variable
+     *
+     * @param name String: environment variable name
+     * @param defaultValue String: value used when the variable is not set or empty
+     * @return String
+     */
+    public static String getEnv(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return (value == null || value.isEmpty()) ? defaultValue : value;
+    }
+
+    /**
+     * Reads an optional comma separated environment variable
+     *
+     * @param name String: environment variable name
+     * @param defaultValue String: comma separated value used when the variable is not set or empty
+     * @return List of the trimmed, non empty values
+     */
+    public static List<String> getListEnv(String name, String defaultValue) {
+        List<String> values = new ArrayList<>();
+        for (String value : getEnv(name, defaultValue).split(",")) {
+            if (!value.trim().isEmpty()) {
+                values.add(value.trim());
+            }
+        }
+        return Collections.unmodifiableList(values);
+    }
+
+    /**
+     * Reads an optional numeric environment variable
+     *
+     * @param name String: environment variable name
+     * @param defaultValue long: value used when the variable is not set, empty or not a number
+     * @return long
+     */
+    public static long getLongEnv(String name, long defaultValue) {
+        try {
+            return Long.parseLong(getEnv(name, String.valueOf(defaultValue)).trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
 }
 
@@ -0,0 +1,86 @@
+package com.lambdajavablockchain.model;
+
+import java.util.List;
+
+/**
+ * A transaction read from the local block archive, with its validation code and write set.
+ * Invalid transactions are archived with the write set they attempted, it was not applied to the ledger.
+ */
+public class ArchivedTransaction {
+    private String txId;
+    private long blockNumber;
+    private long timestamp;
+    private int validationCode;
+    private String validationCodeName;
+    private boolean valid;
+    private List<ArchivedWrite> writes;
+
+    public ArchivedTransaction() {
+    }
+
+    public String getTxId() {
+        return txId;
+    }
+
+    public void setTxId(String txId) {
+        this.txId = txId;
+    }
+
+    public long getBlockNumber() {
+        return blockNumber;
+    }
+
+    public void setBlockNumber(long blockNumber) {
+        this.blockNumber = blockNumber;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public int getValidationCode() {
+        return validationCode;
+    }
+
+    public void setValidationCode(int validationCode) {
+        this.validationCode = validationCode;
+    }
+
+    public String getValidationCodeName() {
+        return validationCodeName;
+    }
+
+    public void setValidationCodeName(String validationCodeName) {
+        this.validationCodeName = validationCodeName;
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    public void setValid(boolean valid) {
+        this.valid = valid;
+    }
+
+    public List<ArchivedWrite> getWrites() {
+        return writes;
+    }
+
+    public void setWrites(List<ArchivedWrite> writes) {
+        this.writes = writes;
+    }
+
+    @Override
+    public String toString() {
+        return "ArchivedTransaction{" +
+                "txId='" + txId + '\'' +
+                ", blockNumber=" + blockNumber +
+                ", validationCode=" + validationCode +
+                ", writes=" + writes +
+                '}';
+    }
+}
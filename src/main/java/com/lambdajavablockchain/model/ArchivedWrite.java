@@ -0,0 +1,65 @@
+package com.lambdajavablockchain.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * A key written by an archived transaction, the value is read as UTF-8 text
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ArchivedWrite {
+    private String namespace;
+    private String key;
+    private String value;
+    private boolean delete;
+
+    public ArchivedWrite() {
+    }
+
+    public ArchivedWrite(String namespace, String key, String value, boolean delete) {
+        this.namespace = namespace;
+        this.key = key;
+        this.value = value;
+        this.delete = delete;
+    }
+
+    public String getNamespace() {
+        return namespace;
+    }
+
+    public void setNamespace(String namespace) {
+        this.namespace = namespace;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public void setValue(String value) {
+        this.value = value;
+    }
+
+    public boolean isDelete() {
+        return delete;
+    }
+
+    public void setDelete(boolean delete) {
+        this.delete = delete;
+    }
+
+    @Override
+    public String toString() {
+        return "ArchivedWrite{" +
+                "namespace='" + namespace + '\'' +
+                ", key='" + key + '\'' +
+                ", delete=" + delete +
+                '}';
+    }
+}
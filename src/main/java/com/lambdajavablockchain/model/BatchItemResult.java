@@ -0,0 +1,65 @@
+package com.lambdajavablockchain.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Result of a single item of a batch request, either a result or an error
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchItemResult {
+    private String key;
+    private int status;
+    private Object result;
+    private String error;
+
+    public BatchItemResult() {
+    }
+
+    public BatchItemResult(String key, int status, Object result, String error) {
+        this.key = key;
+        this.status = status;
+        this.result = result;
+        this.error = error;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public Object getResult() {
+        return result;
+    }
+
+    public void setResult(Object result) {
+        this.result = result;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchItemResult{" +
+                "key='" + key + '\'' +
+                ", status=" + status +
+                ", error='" + error + '\'' +
+                '}';
+    }
+}
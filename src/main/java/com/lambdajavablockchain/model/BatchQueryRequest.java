@@ -0,0 +1,29 @@
+package com.lambdajavablockchain.model;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotEmpty;
+import java.util.List;
+
+/**
+ * Class representing the payload of a batch query request
+ */
+public class BatchQueryRequest {
+    @NotEmpty
+    @Valid
+    private List<QueryRequest> queries;
+
+    public List<QueryRequest> getQueries() {
+        return queries;
+    }
+
+    public void setQueries(List<QueryRequest> queries) {
+        this.queries = queries;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchQueryRequest{" +
+                "queries=" + queries +
+                '}';
+    }
+}
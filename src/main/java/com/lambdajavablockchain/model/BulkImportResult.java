@@ -0,0 +1,80 @@
+package com.lambdajavablockchain.model;
+
+import java.util.List;
+
+/**
+ * Summary of a bulk import: counters and the result of each record, in the order of the records
+ */
+public class BulkImportResult {
+    private int total;
+    private int submitted;
+    private int failed;
+    private boolean truncated;
+    private List<BatchItemResult> results;
+
+    public BulkImportResult() {
+    }
+
+    public BulkImportResult(List<BatchItemResult> results, boolean truncated) {
+        this.results = results;
+        this.truncated = truncated;
+        this.total = results.size();
+        for (BatchItemResult result : results) {
+            if (result.getError() == null) {
+                submitted++;
+            } else {
+                failed++;
+            }
+        }
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public void setTotal(int total) {
+        this.total = total;
+    }
+
+    public int getSubmitted() {
+        return submitted;
+    }
+
+    public void setSubmitted(int submitted) {
+        this.submitted = submitted;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public void setFailed(int failed) {
+        this.failed = failed;
+    }
+
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    public void setTruncated(boolean truncated) {
+        this.truncated = truncated;
+    }
+
+    public List<BatchItemResult> getResults() {
+        return results;
+    }
+
+    public void setResults(List<BatchItemResult> results) {
+        this.results = results;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkImportResult{" +
+                "total=" + total +
+                ", submitted=" + submitted +
+                ", failed=" + failed +
+                ", truncated=" + truncated +
+                '}';
+    }
+}
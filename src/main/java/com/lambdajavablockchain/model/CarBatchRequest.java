@@ -0,0 +1,27 @@
+package com.lambdajavablockchain.model;
+
+import javax.validation.constraints.NotEmpty;
+import java.util.List;
+
+/**
+ * Class representing the payload of a batch car lookup
+ */
+public class CarBatchRequest {
+    @NotEmpty
+    private List<String> carIds;
+
+    public List<String> getCarIds() {
+        return carIds;
+    }
+
+    public void setCarIds(List<String> carIds) {
+        this.carIds = carIds;
+    }
+
+    @Override
+    public String toString() {
+        return "CarBatchRequest{" +
+                "carIds=" + carIds +
+                '}';
+    }
+}
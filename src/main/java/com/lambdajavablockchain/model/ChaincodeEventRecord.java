@@ -0,0 +1,89 @@
+package com.lambdajavablockchain.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * A chaincode event of a valid transaction, the payload is read as UTF-8 text.
+ * {@code index} is the position of the event in its block, the cursor of the event is {@code blockNumber-index}.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ChaincodeEventRecord {
+    private long blockNumber;
+    private int index;
+    private String txId;
+    private String chaincodeName;
+    private String eventName;
+    private String payload;
+
+    public ChaincodeEventRecord() {
+    }
+
+    public ChaincodeEventRecord(long blockNumber, int index, String txId, String chaincodeName, String eventName,
+                                String payload) {
+        this.blockNumber = blockNumber;
+        this.index = index;
+        this.txId = txId;
+        this.chaincodeName = chaincodeName;
+        this.eventName = eventName;
+        this.payload = payload;
+    }
+
+    public long getBlockNumber() {
+        return blockNumber;
+    }
+
+    public void setBlockNumber(long blockNumber) {
+        this.blockNumber = blockNumber;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public String getTxId() {
+        return txId;
+    }
+
+    public void setTxId(String txId) {
+        this.txId = txId;
+    }
+
+    public String getChaincodeName() {
+        return chaincodeName;
+    }
+
+    public void setChaincodeName(String chaincodeName) {
+        this.chaincodeName = chaincodeName;
+    }
+
+    public String getEventName() {
+        return eventName;
+    }
+
+    public void setEventName(String eventName) {
+        this.eventName = eventName;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public void setPayload(String payload) {
+        this.payload = payload;
+    }
+
+    @Override
+    public String toString() {
+        return "ChaincodeEventRecord{" +
+                "blockNumber=" + blockNumber +
+                ", index=" + index +
+                ", txId='" + txId + '\'' +
+                ", chaincodeName='" + chaincodeName + '\'' +
+                ", eventName='" + eventName + '\'' +
+                '}';
+    }
+}
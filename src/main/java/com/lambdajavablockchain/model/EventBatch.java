@@ -0,0 +1,56 @@
+package com.lambdajavablockchain.model;
+
+import java.util.List;
+
+/**
+ * Chaincode events returned by a long poll. {@code cursor} is passed as {@code from} to the next poll.
+ * {@code lagged} is true when events after the requested cursor are no longer buffered by the instance,
+ * the client should then read the current state again.
+ */
+public class EventBatch {
+    private List<ChaincodeEventRecord> events;
+    private String cursor;
+    private boolean lagged;
+
+    public EventBatch() {
+    }
+
+    public EventBatch(List<ChaincodeEventRecord> events, String cursor, boolean lagged) {
+        this.events = events;
+        this.cursor = cursor;
+        this.lagged = lagged;
+    }
+
+    public List<ChaincodeEventRecord> getEvents() {
+        return events;
+    }
+
+    public void setEvents(List<ChaincodeEventRecord> events) {
+        this.events = events;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    public boolean isLagged() {
+        return lagged;
+    }
+
+    public void setLagged(boolean lagged) {
+        this.lagged = lagged;
+    }
+
+    @Override
+    public String toString() {
+        return "EventBatch{" +
+                "events=" + (events == null ? 0 : events.size()) +
+                ", cursor='" + cursor + '\'' +
+                ", lagged=" + lagged +
+                '}';
+    }
+}
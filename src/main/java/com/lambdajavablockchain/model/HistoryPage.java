@@ -0,0 +1,79 @@
+package com.lambdajavablockchain.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+/**
+ * A page of the history of a car, oldest change first. The history only grows, a full page never changes.
+ * {@code next} is the start of the next page, null on the last page.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class HistoryPage {
+    private String carId;
+    private long blockNumber;
+    private int total;
+    private int start;
+    private List<HistoryRecord> records;
+    private Integer next;
+
+    public HistoryPage() {
+    }
+
+    public HistoryPage(String carId, long blockNumber, int total, int start, List<HistoryRecord> records, Integer next) {
+        this.carId = carId;
+        this.blockNumber = blockNumber;
+        this.total = total;
+        this.start = start;
+        this.records = records;
+        this.next = next;
+    }
+
+    public String getCarId() {
+        return carId;
+    }
+
+    public void setCarId(String carId) {
+        this.carId = carId;
+    }
+
+    public long getBlockNumber() {
+        return blockNumber;
+    }
+
+    public void setBlockNumber(long blockNumber) {
+        this.blockNumber = blockNumber;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public void setTotal(int total) {
+        this.total = total;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public void setStart(int start) {
+        this.start = start;
+    }
+
+    public List<HistoryRecord> getRecords() {
+        return records;
+    }
+
+    public void setRecords(List<HistoryRecord> records) {
+        this.records = records;
+    }
+
+    public Integer getNext() {
+        return next;
+    }
+
+    public void setNext(Integer next) {
+        this.next = next;
+    }
+}
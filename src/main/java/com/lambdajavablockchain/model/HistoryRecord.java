@@ -0,0 +1,65 @@
+package com.lambdajavablockchain.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * A committed change of a ledger key: the transaction, its timestamp and the value it wrote, null for a delete
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class HistoryRecord {
+    private String txId;
+    private String timestamp;
+    private boolean delete;
+    private Car value;
+
+    public HistoryRecord() {
+    }
+
+    public HistoryRecord(String txId, String timestamp, boolean delete, Car value) {
+        this.txId = txId;
+        this.timestamp = timestamp;
+        this.delete = delete;
+        this.value = value;
+    }
+
+    public String getTxId() {
+        return txId;
+    }
+
+    public void setTxId(String txId) {
+        this.txId = txId;
+    }
+
+    public String getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(String timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public boolean isDelete() {
+        return delete;
+    }
+
+    public void setDelete(boolean delete) {
+        this.delete = delete;
+    }
+
+    public Car getValue() {
+        return value;
+    }
+
+    public void setValue(Car value) {
+        this.value = value;
+    }
+
+    @Override
+    public String toString() {
+        return "HistoryRecord{" +
+                "txId='" + txId + '\'' +
+                ", timestamp='" + timestamp + '\'' +
+                ", delete=" + delete +
+                '}';
+    }
+}
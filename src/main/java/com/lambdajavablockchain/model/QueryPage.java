@@ -0,0 +1,48 @@
+package com.lambdajavablockchain.model;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * A page of records returned by a paginated chaincode query, with the bookmark of the next page.
+ * An empty bookmark means that there are no more pages.
+ */
+public class QueryPage {
+    private JsonNode records;
+    private String bookmark;
+
+    public QueryPage() {
+    }
+
+    public QueryPage(JsonNode records, String bookmark) {
+        this.records = records;
+        this.bookmark = bookmark;
+    }
+
+    public JsonNode getRecords() {
+        return records;
+    }
+
+    public void setRecords(JsonNode records) {
+        this.records = records;
+    }
+
+    public String getBookmark() {
+        return bookmark;
+    }
+
+    public void setBookmark(String bookmark) {
+        this.bookmark = bookmark;
+    }
+
+    public boolean hasMore() {
+        return bookmark != null && !bookmark.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "QueryPage{" +
+                "records=" + (records == null ? 0 : records.size()) +
+                ", bookmark='" + bookmark + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,126 @@
+package com.lambdajavablockchain.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Commit status of a transaction submitted to the orderer
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TransactionStatus {
+
+    public static final String PENDING = "PENDING";
+    public static final String COMMITTED = "COMMITTED";
+    public static final String INVALID = "INVALID";
+    public static final String FAILED = "FAILED";
+
+    private String txId;
+    private String status;
+    private Integer validationCode;
+    private String validationCodeName;
+    private Long blockNumber;
+    private String error;
+    private Long submittedAt;
+    private Long completedAt;
+    private Integer attempt;
+    private String retriedAs;
+
+    public TransactionStatus() {
+    }
+
+    public TransactionStatus(String txId, String status) {
+        this.txId = txId;
+        this.status = status;
+    }
+
+    public String getTxId() {
+        return txId;
+    }
+
+    public void setTxId(String txId) {
+        this.txId = txId;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public Integer getValidationCode() {
+        return validationCode;
+    }
+
+    public void setValidationCode(Integer validationCode) {
+        this.validationCode = validationCode;
+    }
+
+    public String getValidationCodeName() {
+        return validationCodeName;
+    }
+
+    public void setValidationCodeName(String validationCodeName) {
+        this.validationCodeName = validationCodeName;
+    }
+
+    public Long getBlockNumber() {
+        return blockNumber;
+    }
+
+    public void setBlockNumber(Long blockNumber) {
+        this.blockNumber = blockNumber;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public Long getSubmittedAt() {
+        return submittedAt;
+    }
+
+    public void setSubmittedAt(Long submittedAt) {
+        this.submittedAt = submittedAt;
+    }
+
+    public Long getCompletedAt() {
+        return completedAt;
+    }
+
+    public void setCompletedAt(Long completedAt) {
+        this.completedAt = completedAt;
+    }
+
+    public Integer getAttempt() {
+        return attempt;
+    }
+
+    public void setAttempt(Integer attempt) {
+        this.attempt = attempt;
+    }
+
+    public String getRetriedAs() {
+        return retriedAs;
+    }
+
+    public void setRetriedAs(String retriedAs) {
+        this.retriedAs = retriedAs;
+    }
+
+    @Override
+    public String toString() {
+        return "TransactionStatus{" +
+                "txId='" + txId + '\'' +
+                ", status='" + status + '\'' +
+                ", validationCode=" + validationCode +
+                ", blockNumber=" + blockNumber +
+                ", attempt=" + attempt +
+                ", retriedAs='" + retriedAs + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,433 @@
+package com.lambdajavablockchain.service;
+
+import com.lambdajavablockchain.model.ArchivedTransaction;
+import com.lambdajavablockchain.model.ArchivedWrite;
+import org.hyperledger.fabric.protos.peer.TransactionPackage;
+import org.hyperledger.fabric.sdk.BlockEvent;
+import org.hyperledger.fabric.sdk.BlockInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Append-only local archive of the transactions of the channel, for historical lookups without peer round trips.
+ * Blocks delivered on the channel are ingested in order on a single thread: blocks missed since the checkpoint
+ * (before a restart, or while the instance was frozen) are first queried from a peer, so the archive has no gaps.
+ *
+ * Each transaction is appended to {@code blocks.log} as a length-prefixed record holding its block number,
+ * timestamp, validation code, id and write set. After each block the log is flushed and {@code checkpoint} is
+ * replaced with the last block number and log length; on restart the log is truncated to the checkpoint, a block
+ * partially written before a crash is ingested again. Records are read through a memory mapping of the log,
+ * the key and transaction id indexes are kept in memory and rebuilt from the log when the archive is opened.
+ *
+ */
+public class BlockArchive implements BlockEventConsumer {
+
+    private static final Logger log = LoggerFactory.getLogger(BlockArchive.class);
+
+    private static final String LOG_FILE = "blocks.log";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+
+    /**
+     * Reads blocks missing from the archive, e.g. from a peer
+     */
+    public interface BlockSource {
+        long height() throws Exception;
+
+        BlockInfo block(long blockNumber) throws Exception;
+    }
+
+    private final Path directory;
+    private final long maxBytes;
+    private final long startBlock;
+    private final ExecutorService ingester = Executors.newSingleThreadExecutor(new NamedThreadFactory("block-archive"));
+    private volatile boolean enabled;
+    private volatile BlockSource source;
+
+    // guarded by this
+    private FileChannel file;
+    private MappedByteBuffer mapped;
+    private long length;
+    private long checkpoint = -1;
+    private boolean full;
+    private final Map<String, List<Long>> keyIndex = new HashMap<>();
+    private final Map<String, Long> txIndex = new HashMap<>();
+
+    private final AtomicLong blocks = new AtomicLong();
+    private final AtomicLong backfilled = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong lookups = new AtomicLong();
+
+    /**
+     * @param blockEventRouter BlockEventRouter: source of the delivered blocks
+     * @param enabled boolean: disables the archive when false
+     * @param directory Path: directory of the log and checkpoint files
+     * @param maxBytes long: size of the log after which blocks are no longer archived, at most 2 GB
+     * @param startBlock long: first block archived
+     */
+    public BlockArchive(BlockEventRouter blockEventRouter, boolean enabled, Path directory, long maxBytes,
+                        long startBlock) {
+        this.directory = directory;
+        this.maxBytes = Math.min(Math.max(0, maxBytes), Integer.MAX_VALUE);
+        this.startBlock = Math.max(0, startBlock);
+        if (enabled) {
+            try {
+                open();
+                this.enabled = true;
+                blockEventRouter.addConsumer(this);
+            } catch (IOException e) {
+                log.error("Unable to open block archive in " + directory + ", archive disabled - " + e.getMessage());
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Reads the checkpoint, truncates the log to it and rebuilds the indexes
+     */
+    private synchronized void open() throws IOException {
+        Files.createDirectories(directory);
+        Path checkpointFile = directory.resolve(CHECKPOINT_FILE);
+        long checkpointLength = 0;
+        if (Files.exists(checkpointFile)) {
+            String[] fields = new String(Files.readAllBytes(checkpointFile), StandardCharsets.UTF_8).trim().split(" ");
+            try {
+                checkpoint = Long.parseLong(fields[0]);
+                checkpointLength = Long.parseLong(fields[1]);
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                throw new IOException("Invalid checkpoint file " + checkpointFile);
+            }
+        }
+
+        file = FileChannel.open(directory.resolve(LOG_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        if (file.size() < checkpointLength) {
+            throw new IOException("Block archive log is shorter than its checkpoint");
+        }
+        // records written after the checkpoint belong to a block that was not fully ingested
+        file.truncate(checkpointLength);
+        length = checkpointLength;
+
+        remap();
+        long position = 0;
+        while (position < length) {
+            int size = mapped.getInt((int) position);
+            index(position, decode(position));
+            position += 4 + size;
+        }
+        log.info("Block archive opened - checkpoint block:" + checkpoint + " transactions:" + txIndex.size()
+                + " bytes:" + length);
+    }
+
+    private void remap() throws IOException {
+        mapped = file.map(FileChannel.MapMode.READ_ONLY, 0, length);
+    }
+
+    /**
+     * Starts archiving blocks from {@code source}, blocks committed since the checkpoint are read from it right away
+     *
+     * @param source BlockSource: reads the blocks missing from the archive, replaced when the channel is rebuilt
+     */
+    public void start(BlockSource source) {
+        if (!enabled || isFull()) {
+            return;
+        }
+        this.source = source;
+        ingester.execute(() -> {
+            try {
+                catchUp(source.height() - 1);
+            } catch (Exception e) {
+                failures.incrementAndGet();
+                log.error("Unable to catch up block archive - " + e.getMessage());
+            }
+        });
+    }
+
+    @Override
+    public void onBlock(BlockEvent blockEvent) {
+        if (!isFull()) {
+            ingester.execute(() -> ingest(blockEvent));
+        }
+    }
+
+    private void ingest(BlockInfo block) {
+        if (isFull()) {
+            return;
+        }
+        try {
+            catchUp(block.getBlockNumber() - 1);
+            if (block.getBlockNumber() == nextBlock()) {
+                append(block);
+            }
+        } catch (Exception e) {
+            // the block is ingested again from the source with the next delivered block
+            failures.incrementAndGet();
+            log.error("Unable to archive block " + block.getBlockNumber() + " - " + e.getMessage());
+        }
+    }
+
+    /**
+     * True once the log reached its maximum size, the checkpoint no longer moves and nothing is read from the source
+     */
+    private synchronized boolean isFull() {
+        return full;
+    }
+
+    private synchronized long nextBlock() {
+        return Math.max(checkpoint + 1, startBlock);
+    }
+
+    /**
+     * Reads the blocks between the checkpoint and {@code lastBlock} from the source
+     */
+    private void catchUp(long lastBlock) throws Exception {
+        for (long blockNumber = nextBlock(); blockNumber <= lastBlock && !isFull(); blockNumber++) {
+            BlockSource current = source;
+            if (current == null) {
+                throw new IOException("No block source to catch up from block " + blockNumber);
+            }
+            append(current.block(blockNumber));
+            backfilled.incrementAndGet();
+        }
+    }
+
+    /**
+     * Appends the transactions of a block, then moves the checkpoint to it
+     */
+    private void append(BlockInfo block) throws IOException {
+        long blockNumber = block.getBlockNumber();
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        List<Long> offsets = new ArrayList<>();
+        List<ArchivedTransaction> transactions = new ArrayList<>();
+        for (BlockInfo.EnvelopeInfo envelope : block.getEnvelopeInfos()) {
+            if (envelope.getType() != BlockInfo.EnvelopeType.TRANSACTION_ENVELOPE) {
+                continue;
+            }
+            BlockInfo.TransactionEnvelopeInfo transaction = (BlockInfo.TransactionEnvelopeInfo) envelope;
+            ArchivedTransaction archived = archived(blockNumber, transaction);
+            offsets.add((long) records.size());
+            transactions.add(archived);
+            encode(archived, records);
+        }
+
+        synchronized (this) {
+            if (full) {
+                return;
+            }
+            if (length + records.size() > maxBytes) {
+                full = true;
+                log.error("Block archive full at block " + blockNumber + ", no further blocks are archived");
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(records.toByteArray());
+            long position = length;
+            while (buffer.hasRemaining()) {
+                position += file.write(buffer, position);
+            }
+            file.force(false);
+            writeCheckpoint(blockNumber, position);
+
+            for (int i = 0; i < transactions.size(); i++) {
+                index(length + offsets.get(i), transactions.get(i));
+            }
+            length = position;
+            checkpoint = blockNumber;
+        }
+        blocks.incrementAndGet();
+    }
+
+    private void writeCheckpoint(long blockNumber, long logLength) throws IOException {
+        // replaced atomically, a crash leaves either the previous or the new checkpoint
+        Path temp = directory.resolve(CHECKPOINT_FILE + ".tmp");
+        Files.write(temp, (blockNumber + " " + logLength).getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, directory.resolve(CHECKPOINT_FILE), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static ArchivedTransaction archived(long blockNumber, BlockInfo.TransactionEnvelopeInfo transaction) {
+        ArchivedTransaction archived = new ArchivedTransaction();
+        archived.setTxId(transaction.getTransactionID());
+        archived.setBlockNumber(blockNumber);
+        archived.setTimestamp(transaction.getTimestamp() == null ? 0 : transaction.getTimestamp().getTime());
+        archived.setValidationCode(transaction.getValidationCode() & 0xFF);
+        archived.setValid(transaction.isValid());
+        List<ArchivedWrite> writes = new ArrayList<>();
+        for (LedgerWrite write : LedgerWrite.fromTransaction(blockNumber, transaction)) {
+            writes.add(new ArchivedWrite(write.getNamespace(), write.getKey(),
+                    write.isDelete() ? null : new String(write.getValue(), StandardCharsets.UTF_8), write.isDelete()));
+        }
+        archived.setWrites(writes);
+        return archived;
+    }
+
+    private static void encode(ArchivedTransaction transaction, ByteArrayOutputStream records) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(payload);
+        out.writeLong(transaction.getBlockNumber());
+        out.writeLong(transaction.getTimestamp());
+        out.writeInt(transaction.getValidationCode());
+        writeString(out, transaction.getTxId());
+        out.writeInt(transaction.getWrites().size());
+        for (ArchivedWrite write : transaction.getWrites()) {
+            writeString(out, write.getNamespace());
+            writeString(out, write.getKey());
+            out.writeBoolean(write.isDelete());
+            writeString(out, write.getValue());
+        }
+        out.flush();
+
+        new DataOutputStream(records).writeInt(payload.size());
+        payload.writeTo(records);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Decodes the record at {@code position}, the caller holds the lock
+     */
+    private ArchivedTransaction decode(long position) throws IOException {
+        if (position >= mapped.capacity()) {
+            remap();
+        }
+        ByteBuffer buffer = mapped.duplicate();
+        buffer.position((int) position + 4);
+        ArchivedTransaction transaction = new ArchivedTransaction();
+        transaction.setBlockNumber(buffer.getLong());
+        transaction.setTimestamp(buffer.getLong());
+        int validationCode = buffer.getInt();
+        transaction.setValidationCode(validationCode);
+        transaction.setValid(validationCode == TransactionPackage.TxValidationCode.VALID_VALUE);
+        TransactionPackage.TxValidationCode code = TransactionPackage.TxValidationCode.forNumber(validationCode);
+        transaction.setValidationCodeName(code == null ? String.valueOf(validationCode) : code.name());
+        transaction.setTxId(readString(buffer));
+        int count = buffer.getInt();
+        List<ArchivedWrite> writes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String namespace = readString(buffer);
+            String key = readString(buffer);
+            boolean delete = buffer.get() != 0;
+            writes.add(new ArchivedWrite(namespace, key, readString(buffer), delete));
+        }
+        transaction.setWrites(writes);
+        return transaction;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int size = buffer.getInt();
+        if (size < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[size];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void index(long position, ArchivedTransaction transaction) {
+        // a later copy of a transaction id is invalidated as DUPLICATE_TXID, the first one is the transaction, as
+        // returned by the peer's queryTransactionByID
+        txIndex.putIfAbsent(transaction.getTxId(), position);
+        for (ArchivedWrite write : transaction.getWrites()) {
+            List<Long> positions = keyIndex.computeIfAbsent(indexKey(write.getNamespace(), write.getKey()),
+                    k -> new ArrayList<>(2));
+            // a transaction writing a key twice is listed once
+            if (positions.isEmpty() || positions.get(positions.size() - 1) != position) {
+                positions.add(position);
+            }
+        }
+    }
+
+    private static String indexKey(String namespace, String key) {
+        return namespace + '\u0000' + key;
+    }
+
+    /**
+     * Archived transaction by id
+     *
+     * @param txId String: transaction id
+     * @return ArchivedTransaction, null if the transaction is not archived
+     */
+    public synchronized ArchivedTransaction getTransaction(String txId) throws IOException {
+        lookups.incrementAndGet();
+        Long position = enabled ? txIndex.get(txId) : null;
+        return position == null ? null : decode(position);
+    }
+
+    /**
+     * Archived transactions writing a key, valid or not, in ledger order
+     *
+     * @param namespace String: chaincode name
+     * @param key String: ledger key
+     * @param limit int: maximum number of transactions, the most recent ones are returned
+     * @return List of ArchivedTransaction, empty if no archived transaction wrote the key
+     */
+    public synchronized List<ArchivedTransaction> getKeyHistory(String namespace, String key, int limit)
+            throws IOException {
+        lookups.incrementAndGet();
+        List<Long> positions = enabled ? keyIndex.get(indexKey(namespace, key)) : null;
+        if (positions == null) {
+            return Collections.emptyList();
+        }
+        List<ArchivedTransaction> history = new ArrayList<>();
+        for (Long position : positions.subList(Math.max(0, positions.size() - limit), positions.size())) {
+            history.add(decode(position));
+        }
+        return history;
+    }
+
+    /**
+     * Last block archived, -1 if none
+     *
+     * @return long
+     */
+    public synchronized long getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * Archive counters
+     *
+     * @return Map of counter name to value
+     */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("directory", directory.toString());
+        stats.put("checkpoint", checkpoint);
+        stats.put("bytes", length);
+        stats.put("maxBytes", maxBytes);
+        stats.put("full", full);
+        stats.put("transactions", txIndex.size());
+        stats.put("keys", keyIndex.size());
+        stats.put("blocks", blocks.get());
+        stats.put("backfilled", backfilled.get());
+        stats.put("failures", failures.get());
+        stats.put("lookups", lookups.get());
+        return stats;
+    }
+}
@@ -0,0 +1,29 @@
+package com.lambdajavablockchain.service;
+
+import org.hyperledger.fabric.sdk.BlockEvent;
+
+/**
+ * Receives the blocks delivered on the channel, in block number order and at most once per block.
+ * Blocks may be missed, consumers are told about the gap before the next block.
+ *
+ */
+public interface BlockEventConsumer {
+
+    /**
+     * Called from the Fabric SDK event thread, implementations must return quickly
+     *
+     * @param blockEvent BlockEvent: block delivered by a peer
+     */
+    void onBlock(BlockEvent blockEvent);
+
+    /**
+     * Called before the first block delivered after a delivery gap, e.g. when a rebuilt channel resumes the event
+     * service at the newest block. The blocks of the gap are never passed to onBlock(), state derived from the
+     * delivered blocks must be reset.
+     *
+     * @param firstMissed long: number of the first block not delivered
+     * @param lastMissed long: number of the last block not delivered
+     */
+    default void onGap(long firstMissed, long lastMissed) {
+    }
+}
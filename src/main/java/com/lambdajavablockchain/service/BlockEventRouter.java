@@ -0,0 +1,104 @@
+package com.lambdajavablockchain.service;
+
+import org.hyperledger.fabric.sdk.BlockEvent;
+import org.hyperledger.fabric.sdk.Channel;
+import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single block listener of the channel, fans delivered blocks out to the registered consumers.
+ * The router is attached again to every rebuilt channel, blocks already delivered are not passed on twice. A rebuilt
+ * channel resumes delivery at the newest block, the consumers are told about the blocks missed in between.
+ *
+ */
+public class BlockEventRouter {
+
+    private static final Logger log = LoggerFactory.getLogger(BlockEventRouter.class);
+
+    private final List<BlockEventConsumer> consumers = new CopyOnWriteArrayList<>();
+    private final PeerPool peerPool;
+    private volatile long lastBlockNumber = -1;
+    private final AtomicLong gaps = new AtomicLong();
+
+    /**
+     * @param peerPool PeerPool: updated with the ledger height of the peer delivering each block
+     */
+    public BlockEventRouter(PeerPool peerPool) {
+        this.peerPool = peerPool;
+    }
+
+    public void addConsumer(BlockEventConsumer consumer) {
+        consumers.add(consumer);
+    }
+
+    public void removeConsumer(BlockEventConsumer consumer) {
+        consumers.remove(consumer);
+    }
+
+    /**
+     * Registers the router as block listener, must be called before the channel is initialized
+     *
+     * @param channel Channel: channel not yet initialized
+     */
+    public void attach(Channel channel) throws InvalidArgumentException {
+        channel.registerBlockListener(this::dispatch);
+    }
+
+    /**
+     * Number of the last block delivered on the channel, -1 if no block was delivered yet
+     *
+     * @return long
+     */
+    public long getLastBlockNumber() {
+        return lastBlockNumber;
+    }
+
+    /**
+     * Number of delivery gaps detected
+     *
+     * @return long
+     */
+    public long getGaps() {
+        return gaps.get();
+    }
+
+    private void dispatch(BlockEvent blockEvent) {
+        long blockNumber = blockEvent.getBlockNumber();
+        if (blockEvent.getPeer() != null) {
+            peerPool.updateHeight(blockEvent.getPeer(), blockNumber + 1);
+        }
+        synchronized (this) {
+            if (blockNumber <= lastBlockNumber) {
+                return;
+            }
+            if (lastBlockNumber >= 0 && blockNumber > lastBlockNumber + 1) {
+                long firstMissed = lastBlockNumber + 1;
+                log.warn("Blocks " + firstMissed + " to " + (blockNumber - 1) + " were not delivered");
+                gaps.incrementAndGet();
+                for (BlockEventConsumer consumer : consumers) {
+                    try {
+                        consumer.onGap(firstMissed, blockNumber - 1);
+                    } catch (RuntimeException e) {
+                        log.error("Block consumer " + consumer.getClass().getSimpleName() + " failed on gap "
+                                + firstMissed + " to " + (blockNumber - 1) + " - " + e.getMessage());
+                    }
+                }
+            }
+            // updated before consumers run, readers checking the block number see the new block first
+            lastBlockNumber = blockNumber;
+            for (BlockEventConsumer consumer : consumers) {
+                try {
+                    consumer.onBlock(blockEvent);
+                } catch (RuntimeException e) {
+                    log.error("Block consumer " + consumer.getClass().getSimpleName() + " failed on block "
+                            + blockNumber + " - " + e.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,438 @@
+package com.lambdajavablockchain.service;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.lambdajavablockchain.model.Car;
+import org.hyperledger.fabric.sdk.BlockEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory projection of the cars of the fabcar chaincode, with secondary indexes on owner, make and colour.
+ * The view is loaded once with a chaincode query, then kept current from the write sets of the blocks delivered on
+ * the channel. Writes delivered while the view is loading win over the loaded records, the view is therefore never
+ * older than the last block applied. The peer answering the load may lag a few blocks behind the delivered ones,
+ * the writes of the most recent blocks before the load are applied again after it. When blocks are not delivered,
+ * e.g. while the channel is rebuilt, the view is unloaded and loaded again on next use. Index lookups are case
+ * insensitive.
+ *
+ */
+public class CarView implements BlockEventConsumer {
+
+    private static final Logger log = LoggerFactory.getLogger(CarView.class);
+
+    // ledger values may carry fields unknown to Car, e.g. a docType
+    private static final ObjectReader CAR_READER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .readerFor(Car.class);
+
+    /**
+     * Cars matching a lookup and the block the view is current to
+     */
+    public static class Result {
+        private final long blockNumber;
+        private final List<Car> cars;
+        private final boolean truncated;
+
+        private Result(long blockNumber, List<Car> cars, boolean truncated) {
+            this.blockNumber = blockNumber;
+            this.cars = cars;
+            this.truncated = truncated;
+        }
+
+        public long getBlockNumber() {
+            return blockNumber;
+        }
+
+        public List<Car> getCars() {
+            return cars;
+        }
+
+        public boolean isTruncated() {
+            return truncated;
+        }
+    }
+
+    private final BlockEventRouter blockEventRouter;
+    private final boolean enabled;
+    private final String chaincodeName;
+    private final int recentBlocks;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Car> cars = new HashMap<>();
+    private final Map<String, Set<String>> byOwner = new HashMap<>();
+    private final Map<String, Set<String>> byMake = new HashMap<>();
+    private final Map<String, Set<String>> byColour = new HashMap<>();
+    // keys written by blocks while the view is loading, the loaded records of these keys are older
+    private final Set<String> writtenWhileLoading = new HashSet<>();
+    // writes of the last recentBlocks delivered blocks, oldest first, and those to replay after the load
+    private final ArrayDeque<List<LedgerWrite>> recent = new ArrayDeque<>();
+    private List<List<LedgerWrite>> replay = Collections.emptyList();
+    private boolean loading;
+    // blocks were missed during the load, the loaded records may be older than the view
+    private boolean loadInvalidated;
+    private volatile boolean loaded;
+    private long loadGeneration = -1;
+    private long blockNumber = -1;
+
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong invalidRecords = new AtomicLong();
+    private final AtomicLong gaps = new AtomicLong();
+
+    /**
+     * @param blockEventRouter BlockEventRouter: source of the delivered blocks
+     * @param enabled boolean: disables the view when false
+     * @param chaincodeName String: chaincode whose records are cars
+     * @param recentBlocks int: number of delivered blocks the peer answering the load may be missing, the peer lag
+     *                     tolerance plus one
+     */
+    public CarView(BlockEventRouter blockEventRouter, boolean enabled, String chaincodeName, int recentBlocks) {
+        this.blockEventRouter = blockEventRouter;
+        this.enabled = enabled;
+        this.chaincodeName = chaincodeName;
+        this.recentBlocks = Math.max(0, recentBlocks);
+        if (enabled) {
+            blockEventRouter.addConsumer(this);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public String getChaincodeName() {
+        return chaincodeName;
+    }
+
+    /**
+     * Starts loading the view, blocks delivered from now on are applied over the loaded records
+     */
+    public void startLoad() {
+        lock.writeLock().lock();
+        try {
+            loading = true;
+            loadInvalidated = false;
+            writtenWhileLoading.clear();
+            // applied before the load started, the loaded records may predate them
+            replay = new ArrayList<>(recent);
+            loadGeneration = blockEventRouter.getLastBlockNumber();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds loaded records, {@code [{"Key": ..., "Record": {...}}]} as returned by queryAllCars
+     *
+     * @param records JsonNode: array of records
+     */
+    public void load(JsonNode records) {
+        lock.writeLock().lock();
+        try {
+            for (JsonNode record : records) {
+                String key = record.path("Key").asText(null);
+                if (key == null || writtenWhileLoading.contains(key)) {
+                    continue;
+                }
+                try {
+                    Car car = CAR_READER.readValue(record.path("Record"));
+                    car.setId(key);
+                    put(car);
+                } catch (IOException e) {
+                    invalidRecords.incrementAndGet();
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Ends the load started by startLoad()
+     *
+     * @param success boolean: false if the load failed, the view stays unloaded and can be loaded again
+     */
+    public void finishLoad(boolean success) {
+        lock.writeLock().lock();
+        try {
+            loading = false;
+            if (success && !loadInvalidated) {
+                for (List<LedgerWrite> blockWrites : replay) {
+                    for (LedgerWrite write : blockWrites) {
+                        // keys written during the load already have a newer value
+                        if (!writtenWhileLoading.contains(write.getKey())) {
+                            apply(write);
+                        }
+                    }
+                }
+            }
+            writtenWhileLoading.clear();
+            replay = Collections.emptyList();
+            if (success && !loadInvalidated) {
+                blockNumber = Math.max(blockNumber, loadGeneration);
+                loaded = true;
+                log.info("Car view loaded - cars:" + cars.size() + " block:" + blockNumber);
+            } else {
+                clear();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onBlock(BlockEvent blockEvent) {
+        List<LedgerWrite> blockWrites = new ArrayList<>();
+        for (LedgerWrite write : LedgerWrite.fromBlock(blockEvent)) {
+            if (chaincodeName.equals(write.getNamespace())) {
+                blockWrites.add(write);
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            for (LedgerWrite write : blockWrites) {
+                writes.incrementAndGet();
+                if (loading) {
+                    writtenWhileLoading.add(write.getKey());
+                }
+                apply(write);
+            }
+            if (recentBlocks > 0) {
+                if (recent.size() >= recentBlocks) {
+                    recent.poll();
+                }
+                recent.add(blockWrites);
+            }
+            blockNumber = Math.max(blockNumber, blockEvent.getBlockNumber());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void apply(LedgerWrite write) {
+        remove(write.getKey());
+        if (!write.isDelete()) {
+            try {
+                Car car = CAR_READER.readValue(write.getValue());
+                car.setId(write.getKey());
+                put(car);
+            } catch (IOException e) {
+                // not a car, e.g. a different record type of the same chaincode
+                invalidRecords.incrementAndGet();
+            }
+        }
+    }
+
+    @Override
+    public void onGap(long firstMissed, long lastMissed) {
+        lock.writeLock().lock();
+        try {
+            // the writes of the missed blocks are unknown, the view is loaded again on next use
+            gaps.incrementAndGet();
+            if (loaded || loading) {
+                log.warn("Blocks " + firstMissed + " to " + lastMissed + " were not delivered, reloading car view");
+            }
+            loadInvalidated = loading;
+            loaded = false;
+            blockNumber = -1;
+            recent.clear();
+            clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void put(Car car) {
+        remove(car.getId());
+        // index values are repeated across many cars, a single instance of each is kept
+        car.setOwner(intern(car.getOwner()));
+        car.setMake(intern(car.getMake()));
+        car.setColour(intern(car.getColour()));
+        car.setModel(intern(car.getModel()));
+        cars.put(car.getId(), car);
+        index(byOwner, car.getOwner(), car.getId());
+        index(byMake, car.getMake(), car.getId());
+        index(byColour, car.getColour(), car.getId());
+    }
+
+    private void remove(String id) {
+        Car car = cars.remove(id);
+        if (car != null) {
+            unindex(byOwner, car.getOwner(), id);
+            unindex(byMake, car.getMake(), id);
+            unindex(byColour, car.getColour(), id);
+        }
+    }
+
+    private void clear() {
+        cars.clear();
+        byOwner.clear();
+        byMake.clear();
+        byColour.clear();
+    }
+
+    private static String intern(String value) {
+        return value == null ? null : value.intern();
+    }
+
+    private static String normalize(String value) {
+        return value == null ? "" : value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static void index(Map<String, Set<String>> index, String value, String id) {
+        index.computeIfAbsent(normalize(value), v -> new HashSet<>()).add(id);
+    }
+
+    private static void unindex(Map<String, Set<String>> index, String value, String id) {
+        Set<String> ids = index.get(normalize(value));
+        if (ids != null) {
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                index.remove(normalize(value));
+            }
+        }
+    }
+
+    /**
+     * Car by id
+     *
+     * @param id String: car id
+     * @return Car, null if the view has no such car
+     */
+    public Car get(String id) {
+        lookups.incrementAndGet();
+        lock.readLock().lock();
+        try {
+            return copy(cars.get(id));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Cars matching all the given attributes, null attributes match any car. The smallest index is scanned and the
+     * other attributes are checked on each of its cars.
+     *
+     * @param owner String: owner, null for any
+     * @param make String: make, null for any
+     * @param colour String: colour, null for any
+     * @param limit int: maximum number of cars returned
+     * @return Result, cars sorted by id
+     */
+    public Result find(String owner, String make, String colour, int limit) {
+        lookups.incrementAndGet();
+        lock.readLock().lock();
+        try {
+            Collection<String> candidates = cars.keySet();
+            candidates = narrow(candidates, byOwner, owner);
+            candidates = narrow(candidates, byMake, make);
+            candidates = narrow(candidates, byColour, colour);
+
+            List<String> ids = new ArrayList<>();
+            for (String id : candidates) {
+                Car car = cars.get(id);
+                if (matches(car.getOwner(), owner) && matches(car.getMake(), make) && matches(car.getColour(), colour)) {
+                    ids.add(id);
+                }
+            }
+            Collections.sort(ids);
+            List<Car> result = new ArrayList<>(Math.min(ids.size(), limit));
+            for (String id : ids.subList(0, Math.min(ids.size(), limit))) {
+                result.add(copy(cars.get(id)));
+            }
+            return new Result(blockNumber, result, ids.size() > limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static Collection<String> narrow(Collection<String> candidates, Map<String, Set<String>> index,
+                                             String value) {
+        if (value == null) {
+            return candidates;
+        }
+        Set<String> ids = index.getOrDefault(normalize(value), Collections.emptySet());
+        return ids.size() < candidates.size() ? ids : candidates;
+    }
+
+    private static boolean matches(String value, String filter) {
+        return filter == null || normalize(value).equals(normalize(filter));
+    }
+
+    // cars of the view are mutable beans, callers get their own copy
+    private static Car copy(Car car) {
+        if (car == null) {
+            return null;
+        }
+        Car copy = new Car();
+        copy.setId(car.getId());
+        copy.setMake(car.getMake());
+        copy.setModel(car.getModel());
+        copy.setColour(car.getColour());
+        copy.setOwner(car.getOwner());
+        return copy;
+    }
+
+    /**
+     * Block the view is current to, -1 before the view is loaded
+     *
+     * @return long
+     */
+    public long getBlockNumber() {
+        lock.readLock().lock();
+        try {
+            return blockNumber;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return cars.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * View counters
+     *
+     * @return Map of counter name to value
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        lock.readLock().lock();
+        try {
+            stats.put("enabled", enabled);
+            stats.put("loaded", loaded);
+            stats.put("chaincodeName", chaincodeName);
+            stats.put("cars", cars.size());
+            stats.put("owners", byOwner.size());
+            stats.put("makes", byMake.size());
+            stats.put("colours", byColour.size());
+            stats.put("blockNumber", blockNumber);
+        } finally {
+            lock.readLock().unlock();
+        }
+        stats.put("lookups", lookups.get());
+        stats.put("writes", writes.get());
+        stats.put("invalidRecords", invalidRecords.get());
+        stats.put("deliveryGaps", gaps.get());
+        return stats;
+    }
+}
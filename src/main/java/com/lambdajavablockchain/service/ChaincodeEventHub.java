@@ -0,0 +1,502 @@
+package com.lambdajavablockchain.service;
+
+import com.lambdajavablockchain.exception.AppException;
+import com.lambdajavablockchain.model.ChaincodeEventRecord;
+import com.lambdajavablockchain.model.EventBatch;
+import org.hyperledger.fabric.sdk.BlockEvent;
+import org.hyperledger.fabric.sdk.BlockInfo;
+import org.hyperledger.fabric.sdk.ChaincodeEvent;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Fans the chaincode events of the delivered blocks out to subscribers, so that clients are told about state changes
+ * instead of polling queries. The most recent events are kept in a bounded buffer: long polls are answered from it
+ * or wait for the next matching event, and a subscriber resuming from a cursor is first sent the buffered events.
+ * Each subscription has its own bounded buffer, a subscriber that does not keep up loses its oldest events and is
+ * told how many were dropped.
+ *
+ * Cursors are ledger positions {@code blockNumber-index}, the same on every instance. A cursor older than the
+ * buffered events, or before blocks that were not delivered, e.g. while the channel was rebuilt, is reported as
+ * lagged, the client should then read the current state again.
+ *
+ */
+public class ChaincodeEventHub implements BlockEventConsumer {
+
+    /**
+     * Chaincode name and event name pattern a subscriber is interested in
+     */
+    public static class Filter {
+        private final String chaincodeName;
+        private final Pattern eventName;
+
+        private Filter(String chaincodeName, Pattern eventName) {
+            this.chaincodeName = chaincodeName;
+            this.eventName = eventName;
+        }
+
+        /**
+         * @param chaincodeName String: chaincode emitting the events
+         * @param eventName String: regular expression the whole event name must match, null for any event
+         * @return Filter
+         * @throws AppException if the pattern is invalid
+         */
+        public static Filter of(String chaincodeName, String eventName) throws AppException {
+            try {
+                return new Filter(chaincodeName, eventName == null || eventName.isEmpty() ? null : Pattern.compile(eventName));
+            } catch (PatternSyntaxException e) {
+                throw new AppException("Invalid event name pattern - " + e.getDescription());
+            }
+        }
+
+        private boolean matches(ChaincodeEventRecord event) {
+            return chaincodeName.equals(event.getChaincodeName())
+                    && (eventName == null || eventName.matcher(event.getEventName()).matches());
+        }
+    }
+
+    /**
+     * Push subscription, events are buffered until the listener takes them
+     */
+    public class Subscription {
+        private final Filter filter;
+        private final Consumer<Subscription> listener;
+        private final ArrayDeque<ChaincodeEventRecord> buffer = new ArrayDeque<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        // held while the listener runs, not while events are offered
+        private final Object delivering = new Object();
+        private long dropped;
+        private boolean lagged;
+
+        private Subscription(Filter filter, Consumer<Subscription> listener) {
+            this.filter = filter;
+            this.listener = listener;
+        }
+
+        private synchronized void offer(ChaincodeEventRecord event) {
+            if (buffer.size() >= subscriberBufferSize) {
+                buffer.poll();
+                dropped++;
+                ChaincodeEventHub.this.dropped.incrementAndGet();
+            }
+            buffer.add(event);
+        }
+
+        private synchronized void markLagged() {
+            lagged = true;
+        }
+
+        private synchronized boolean isPending() {
+            return !buffer.isEmpty() || dropped > 0 || lagged;
+        }
+
+        /**
+         * Events buffered since the last call, oldest first
+         *
+         * @return List of ChaincodeEventRecord
+         */
+        public synchronized List<ChaincodeEventRecord> take() {
+            List<ChaincodeEventRecord> events = new ArrayList<>(buffer);
+            buffer.clear();
+            delivered.addAndGet(events.size());
+            return events;
+        }
+
+        /**
+         * Events dropped since the last call because the subscription buffer was full
+         *
+         * @return long
+         */
+        public synchronized long takeDropped() {
+            long count = dropped;
+            dropped = 0;
+            return count;
+        }
+
+        /**
+         * True once if events between the resume cursor and the buffered events were lost
+         *
+         * @return boolean
+         */
+        public synchronized boolean takeLagged() {
+            boolean value = lagged;
+            lagged = false;
+            return value;
+        }
+    }
+
+    private static class Waiter {
+        private final Filter filter;
+        private final long fromBlock;
+        private final int fromIndex;
+        private final int limit;
+        private final boolean resumed;
+        private final CompletableFuture<EventBatch> batch = new CompletableFuture<>();
+
+        private Waiter(Filter filter, long fromBlock, int fromIndex, int limit, boolean resumed) {
+            this.filter = filter;
+            this.fromBlock = fromBlock;
+            this.fromIndex = fromIndex;
+            this.limit = limit;
+            this.resumed = resumed;
+        }
+
+        private EventBatch read(ChaincodeEventHub hub) {
+            return hub.read(filter, fromBlock, fromIndex, limit, resumed);
+        }
+    }
+
+    private final boolean enabled;
+    private final int bufferSize;
+    private final int subscriberBufferSize;
+    private final int maxSubscribers;
+    private final ExecutorService delivery;
+    private final ScheduledExecutorService timeouts;
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    // guarded by this
+    private final ArrayDeque<ChaincodeEventRecord> recent = new ArrayDeque<>();
+    private final List<Waiter> waiters = new ArrayList<>();
+    private ChaincodeEventRecord lastEvicted;
+    private long firstBlockNumber = -1;
+    private long lastBlockNumber = -1;
+    // last block of the most recent delivery gap, the events of the missed blocks are unknown
+    private long lastMissedBlock = -1;
+
+    private final AtomicLong events = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong polls = new AtomicLong();
+    private final AtomicLong lagged = new AtomicLong();
+    private final AtomicLong gaps = new AtomicLong();
+
+    /**
+     * @param blockEventRouter BlockEventRouter: source of the delivered blocks
+     * @param enabled boolean: disables the hub when false
+     * @param bufferSize int: number of recent events kept for long polls and resuming subscribers
+     * @param subscriberBufferSize int: number of events buffered per subscription
+     * @param maxSubscribers int: maximum number of subscriptions and waiting long polls
+     * @param delivery ExecutorService: runs the subscription listeners and completes the long polls
+     * @param timeouts ScheduledExecutorService: expires the long polls
+     */
+    public ChaincodeEventHub(BlockEventRouter blockEventRouter, boolean enabled, int bufferSize,
+                             int subscriberBufferSize, int maxSubscribers, ExecutorService delivery,
+                             ScheduledExecutorService timeouts) {
+        this.enabled = enabled;
+        this.bufferSize = Math.max(1, bufferSize);
+        this.subscriberBufferSize = Math.max(1, subscriberBufferSize);
+        this.maxSubscribers = Math.max(0, maxSubscribers);
+        this.delivery = delivery;
+        this.timeouts = timeouts;
+        if (enabled) {
+            blockEventRouter.addConsumer(this);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void onBlock(BlockEvent blockEvent) {
+        long blockNumber = blockEvent.getBlockNumber();
+        List<ChaincodeEventRecord> blockEvents = fromBlock(blockEvent);
+        List<Waiter> ready = new ArrayList<>();
+        synchronized (this) {
+            if (firstBlockNumber < 0) {
+                firstBlockNumber = blockNumber;
+            }
+            lastBlockNumber = blockNumber;
+            for (ChaincodeEventRecord event : blockEvents) {
+                if (recent.size() >= bufferSize) {
+                    lastEvicted = recent.poll();
+                }
+                recent.add(event);
+                for (Subscription subscription : subscriptions) {
+                    if (subscription.filter.matches(event)) {
+                        subscription.offer(event);
+                    }
+                }
+            }
+            for (Iterator<Waiter> it = waiters.iterator(); it.hasNext(); ) {
+                Waiter waiter = it.next();
+                if (blockEvents.stream().anyMatch(waiter.filter::matches)) {
+                    it.remove();
+                    ready.add(waiter);
+                }
+            }
+        }
+        events.addAndGet(blockEvents.size());
+
+        for (Subscription subscription : subscriptions) {
+            if (subscription.isPending()) {
+                signal(subscription);
+            }
+        }
+        // completed on the delivery executor, the continuations of the polls do not run on the event thread
+        for (Waiter waiter : ready) {
+            delivery.execute(() -> waiter.batch.complete(waiter.read(this)));
+        }
+    }
+
+    @Override
+    public void onGap(long firstMissed, long lastMissed) {
+        gaps.incrementAndGet();
+        List<Waiter> ready = new ArrayList<>();
+        synchronized (this) {
+            lastMissedBlock = Math.max(lastMissedBlock, lastMissed);
+            // polls waiting for events of the missed blocks are answered as lagged right away
+            for (Iterator<Waiter> it = waiters.iterator(); it.hasNext(); ) {
+                Waiter waiter = it.next();
+                if (waiter.fromBlock <= lastMissed) {
+                    it.remove();
+                    ready.add(waiter);
+                }
+            }
+        }
+        // subscribers are told with the events of the next block
+        for (Subscription subscription : subscriptions) {
+            subscription.markLagged();
+            lagged.incrementAndGet();
+        }
+        for (Waiter waiter : ready) {
+            delivery.execute(() -> waiter.batch.complete(waiter.read(this)));
+        }
+    }
+
+    /**
+     * Chaincode events of the valid transactions of a block, in transaction order
+     */
+    private static List<ChaincodeEventRecord> fromBlock(BlockEvent blockEvent) {
+        List<ChaincodeEventRecord> records = new ArrayList<>();
+        for (BlockEvent.TransactionEvent transaction : blockEvent.getTransactionEvents()) {
+            if (!transaction.isValid()) {
+                continue;
+            }
+            for (BlockInfo.TransactionEnvelopeInfo.TransactionActionInfo action : transaction.getTransactionActionInfos()) {
+                ChaincodeEvent event = action.getEvent();
+                if (event == null || event.getEventName() == null || event.getEventName().isEmpty()) {
+                    continue;
+                }
+                byte[] payload = event.getPayload();
+                records.add(new ChaincodeEventRecord(blockEvent.getBlockNumber(), records.size(),
+                        transaction.getTransactionID(), event.getChaincodeId(), event.getEventName(),
+                        payload == null ? null : new String(payload, StandardCharsets.UTF_8)));
+            }
+        }
+        return records;
+    }
+
+    private void signal(Subscription subscription) {
+        // at most one pending run per subscription, a slow subscriber does not pile up tasks
+        if (subscription.scheduled.compareAndSet(false, true)) {
+            delivery.execute(() -> {
+                subscription.scheduled.set(false);
+                synchronized (subscription.delivering) {
+                    subscription.listener.accept(subscription);
+                }
+            });
+        }
+    }
+
+    /**
+     * Subscribes to the events matching {@code filter}, the listener is called on the delivery executor whenever
+     * events are buffered for the subscription, never concurrently for the same subscription
+     *
+     * @param filter Filter: events of interest
+     * @param from String: cursor to resume from, the buffered events from it are sent first; null to start with
+     *             the next event
+     * @param listener Consumer: takes the events of the subscription
+     * @return Subscription, null if the maximum number of subscribers is reached
+     * @throws AppException if the cursor is invalid
+     */
+    public Subscription subscribe(Filter filter, String from, Consumer<Subscription> listener) throws AppException {
+        long[] position = from == null || from.isEmpty() ? null : parseCursor(from);
+        Subscription subscription = new Subscription(filter, listener);
+        synchronized (this) {
+            if (subscriptions.size() + waiters.size() >= maxSubscribers) {
+                return null;
+            }
+            if (position != null) {
+                if (isLagged(position[0], (int) position[1])) {
+                    subscription.markLagged();
+                    lagged.incrementAndGet();
+                }
+                for (ChaincodeEventRecord event : recent) {
+                    if (!before(event, position[0], (int) position[1]) && filter.matches(event)) {
+                        subscription.offer(event);
+                    }
+                }
+            }
+            // registered under the lock, no event is missed between the buffered events and the delivered ones
+            subscriptions.add(subscription);
+        }
+        if (subscription.isPending()) {
+            signal(subscription);
+        }
+        return subscription;
+    }
+
+    public void unsubscribe(Subscription subscription) {
+        subscriptions.remove(subscription);
+    }
+
+    /**
+     * Long poll: events matching {@code filter} from {@code from}, completed right away if there are some, otherwise
+     * with the first matching events delivered or an empty batch once the timeout expires
+     *
+     * @param filter Filter: events of interest
+     * @param from String: cursor returned by the previous poll, null to start with the next event
+     * @param limit int: maximum number of events returned
+     * @param timeoutMillis long: maximum wait for a matching event
+     * @return CompletableFuture completed with the EventBatch, null if the maximum number of subscribers is reached
+     * @throws AppException if the cursor is invalid
+     */
+    public CompletableFuture<EventBatch> poll(Filter filter, String from, int limit, long timeoutMillis)
+            throws AppException {
+        polls.incrementAndGet();
+        boolean resumed = from != null && !from.isEmpty();
+        long[] position = resumed ? parseCursor(from) : null;
+        Waiter waiter;
+        synchronized (this) {
+            if (position == null) {
+                position = new long[]{lastBlockNumber + 1, 0};
+            }
+            EventBatch batch = read(filter, position[0], (int) position[1], limit, resumed);
+            if (!batch.getEvents().isEmpty() || batch.isLagged() || timeoutMillis <= 0) {
+                return CompletableFuture.completedFuture(batch);
+            }
+            if (subscriptions.size() + waiters.size() >= maxSubscribers) {
+                return null;
+            }
+            waiter = new Waiter(filter, position[0], (int) position[1], limit, resumed);
+            waiters.add(waiter);
+        }
+        timeouts.schedule(() -> {
+            boolean expired;
+            synchronized (this) {
+                expired = waiters.remove(waiter);
+            }
+            if (expired) {
+                waiter.batch.complete(waiter.read(this));
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        return waiter.batch;
+    }
+
+    /**
+     * Buffered events matching {@code filter} from the given position, and the cursor to continue from.
+     * Events can only have been evicted or delivered before this instance started listening when the position is a
+     * cursor sent by the client, a poll waiting across a delivery gap also lost events.
+     */
+    private synchronized EventBatch read(Filter filter, long fromBlock, int fromIndex, int limit, boolean resumed) {
+        boolean isLagged = resumed ? isLagged(fromBlock, fromIndex) : fromBlock <= lastMissedBlock;
+        if (isLagged) {
+            lagged.incrementAndGet();
+        }
+        List<ChaincodeEventRecord> matching = new ArrayList<>();
+        String next = null;
+        for (ChaincodeEventRecord event : recent) {
+            if (before(event, fromBlock, fromIndex) || !filter.matches(event)) {
+                continue;
+            }
+            if (matching.size() == limit) {
+                next = cursor(matching.get(limit - 1).getBlockNumber(), matching.get(limit - 1).getIndex() + 1);
+                break;
+            }
+            matching.add(event);
+        }
+        if (next == null) {
+            // all buffered events were read, the client continues with the next block
+            next = lastBlockNumber + 1 > fromBlock ? cursor(lastBlockNumber + 1, 0) : cursor(fromBlock, fromIndex);
+        }
+        return new EventBatch(matching, next, isLagged);
+    }
+
+    /**
+     * True if events from the given position may have been lost: they were evicted from the buffer, were
+     * delivered before this instance started listening or were in blocks that were not delivered
+     */
+    private boolean isLagged(long fromBlock, int fromIndex) {
+        if (lastEvicted != null && !before(lastEvicted, fromBlock, fromIndex)) {
+            return true;
+        }
+        if (fromBlock <= lastMissedBlock) {
+            return true;
+        }
+        return firstBlockNumber >= 0 && fromBlock < firstBlockNumber;
+    }
+
+    private static boolean before(ChaincodeEventRecord event, long blockNumber, int index) {
+        return event.getBlockNumber() < blockNumber
+                || (event.getBlockNumber() == blockNumber && event.getIndex() < index);
+    }
+
+    /**
+     * Cursor of the position following an event, sent as the SSE event id
+     *
+     * @param event ChaincodeEventRecord
+     * @return String
+     */
+    public static String cursorAfter(ChaincodeEventRecord event) {
+        return cursor(event.getBlockNumber(), event.getIndex() + 1);
+    }
+
+    private static String cursor(long blockNumber, int index) {
+        return blockNumber + "-" + index;
+    }
+
+    private static long[] parseCursor(String cursor) throws AppException {
+        String[] fields = cursor.split("-");
+        try {
+            if (fields.length == 2) {
+                long blockNumber = Long.parseLong(fields[0]);
+                int index = Integer.parseInt(fields[1]);
+                if (blockNumber >= 0 && index >= 0) {
+                    return new long[]{blockNumber, index};
+                }
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new AppException("Invalid event cursor " + cursor);
+    }
+
+    /**
+     * Event counters
+     *
+     * @return Map of counter name to value
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        synchronized (this) {
+            stats.put("buffered", recent.size());
+            stats.put("bufferSize", bufferSize);
+            stats.put("subscribers", subscriptions.size());
+            stats.put("waitingPolls", waiters.size());
+            stats.put("maxSubscribers", maxSubscribers);
+            stats.put("firstBlockNumber", firstBlockNumber);
+            stats.put("lastBlockNumber", lastBlockNumber);
+            stats.put("lastMissedBlock", lastMissedBlock);
+        }
+        stats.put("events", events.get());
+        stats.put("delivered", delivered.get());
+        stats.put("dropped", dropped.get());
+        stats.put("polls", polls.get());
+        stats.put("lagged", lagged.get());
+        stats.put("deliveryGaps", gaps.get());
+        return stats;
+    }
+}
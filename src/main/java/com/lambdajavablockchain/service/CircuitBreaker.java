@@ -0,0 +1,122 @@
+package com.lambdajavablockchain.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Circuit breaker guarding calls to the Fabric network.
+ * The circuit opens after {@code failureThreshold} consecutive failures, requests then fail fast for
+ * {@code openMillis}. After that a single trial request is let through (half open): its success closes the
+ * circuit, its failure opens it again. A trial that does not report back within {@code openMillis} is abandoned
+ * and the next request becomes the trial.
+ *
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long openNanos;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialInFlight;
+    private long trialStartedAt;
+
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong opened = new AtomicLong();
+
+    /**
+     * @param failureThreshold int: consecutive failures opening the circuit
+     * @param openMillis long: time the circuit stays open before a trial request is allowed
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    }
+
+    /**
+     * @return boolean: true if the request may be sent, false if it must fail fast
+     */
+    public synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.nanoTime() - openedAt >= openNanos) {
+                    state = State.HALF_OPEN;
+                    startTrial();
+                    return true;
+                }
+                break;
+            case HALF_OPEN:
+                if (!trialInFlight || System.nanoTime() - trialStartedAt >= openNanos) {
+                    startTrial();
+                    return true;
+                }
+                break;
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    private void startTrial() {
+        trialInFlight = true;
+        trialStartedAt = System.nanoTime();
+    }
+
+    /**
+     * Ends a request let through without an outcome, e.g. rejected before it reached the network, the next request
+     * can be the trial
+     */
+    public synchronized void release() {
+        trialInFlight = false;
+    }
+
+    public synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        trialInFlight = false;
+        state = State.CLOSED;
+    }
+
+    /**
+     * @return boolean: true if this failure opened the circuit
+     */
+    public synchronized boolean recordFailure() {
+        consecutiveFailures++;
+        trialInFlight = false;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+            opened.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Allows a trial request right away, e.g. once the channel has been rebuilt
+     */
+    public synchronized void halfOpen() {
+        if (state == State.OPEN) {
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("state", state.name());
+        stats.put("consecutiveFailures", consecutiveFailures);
+        stats.put("opened", opened.get());
+        stats.put("rejected", rejected.get());
+        return stats;
+    }
+}
@@ -0,0 +1,166 @@
+package com.lambdajavablockchain.service;
+
+import com.lambdajavablockchain.exception.EnrollmentNotFoundException;
+import com.lambdajavablockchain.model.FabricUser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory cache of Fabric user contexts, kept for the lifetime of the container.
+ * Entries are keyed by organisation and user id, expire after a configurable TTL and the least recently
+ * used entry is evicted once the cache is full. A warm container serves user contexts from memory
+ * without calling AWS Secrets Manager or parsing the private key again.
+ *
+ */
+public class EnrollmentCache {
+
+    private static final Logger log = LoggerFactory.getLogger(EnrollmentCache.class);
+
+    /**
+     * Loads a user context when it is missing from the cache or expired
+     */
+    public interface Loader {
+        FabricUser load(String userId, String orgName) throws EnrollmentNotFoundException;
+    }
+
+    private static class Entry {
+        private final FabricUser user;
+        private final long expiresAt;
+
+        private Entry(FabricUser user, long expiresAt) {
+            this.user = user;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final long ttlNanos;
+    private final int maxSize;
+    private final Map<String, Entry> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loadFailures = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong totalLoadTimeNanos = new AtomicLong();
+
+    /**
+     * @param ttlSeconds long: time to live of an entry, 0 disables caching
+     * @param maxSize int: maximum number of user contexts kept in memory
+     */
+    public EnrollmentCache(long ttlSeconds, int maxSize) {
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(Math.max(0, ttlSeconds));
+        this.maxSize = Math.max(1, maxSize);
+        // access-ordered map, the eldest entry is the least recently used one
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > EnrollmentCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached user context, or loads it with {@code loader} on a miss
+     *
+     * @param userId String: user id
+     * @param orgName String: organisation name
+     * @param loader Loader: called on a miss, outside of the cache lock
+     * @return FabricUser
+     * @throws EnrollmentNotFoundException if the loader cannot find the user credentials
+     */
+    public FabricUser get(String userId, String orgName, Loader loader) throws EnrollmentNotFoundException {
+        String key = key(userId, orgName);
+        long now = System.nanoTime();
+
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (now - entry.expiresAt < 0) {
+                    hits.incrementAndGet();
+                    return entry.user;
+                }
+                entries.remove(key);
+            }
+        }
+
+        misses.incrementAndGet();
+        long start = System.nanoTime();
+        FabricUser user;
+        try {
+            user = loader.load(userId, orgName);
+        } catch (EnrollmentNotFoundException e) {
+            loadFailures.incrementAndGet();
+            throw e;
+        } finally {
+            totalLoadTimeNanos.addAndGet(System.nanoTime() - start);
+        }
+
+        if (ttlNanos > 0) {
+            synchronized (entries) {
+                entries.put(key, new Entry(user, System.nanoTime() + ttlNanos));
+            }
+        }
+        log.debug("Enrollment of " + userId + " loaded in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+        return user;
+    }
+
+    /**
+     * Removes a single user context, the next call to get() reloads it
+     *
+     * @param userId String: user id
+     * @param orgName String: organisation name
+     */
+    public void invalidate(String userId, String orgName) {
+        synchronized (entries) {
+            entries.remove(key(userId, orgName));
+        }
+    }
+
+    /**
+     * Removes all cached user contexts
+     */
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Cache counters, used to verify the hit ratio under load
+     *
+     * @return Map of counter name to value
+     */
+    public Map<String, Object> getStats() {
+        long loads = misses.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", size());
+        stats.put("maxSize", maxSize);
+        stats.put("ttlSeconds", TimeUnit.NANOSECONDS.toSeconds(ttlNanos));
+        stats.put("hits", hits.get());
+        stats.put("misses", loads);
+        stats.put("loadFailures", loadFailures.get());
+        stats.put("evictions", evictions.get());
+        stats.put("totalLoadTimeMs", TimeUnit.NANOSECONDS.toMillis(totalLoadTimeNanos.get()));
+        stats.put("averageLoadTimeMs", loads == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalLoadTimeNanos.get()) / loads);
+        return stats;
+    }
+
+    private static String key(String userId, String orgName) {
+        return orgName + "/" + userId;
+    }
+}
@@ -0,0 +1,222 @@
+package com.lambdajavablockchain.service;
+
+import org.hyperledger.fabric.sdk.Channel;
+import org.hyperledger.fabric.sdk.ChaincodeResponse;
+import org.hyperledger.fabric.sdk.Peer;
+import org.hyperledger.fabric.sdk.ProposalResponse;
+import org.hyperledger.fabric.sdk.QueryByChaincodeRequest;
+import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
+import org.hyperledger.fabric.sdk.exception.ProposalException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends query proposals to the peers of the PeerPool.
+ * In hedged mode the query is sent to the best peer first; if no answer arrives within the configured latency
+ * percentile of recent queries, the same query is sent to the next best peer. The first response of a peer wins and
+ * the other request is cancelled. A chaincode error is a response of a healthy peer, only peers that could not be
+ * reached are penalized and hedged around.
+ *
+ */
+public class HedgedQueryExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(HedgedQueryExecutor.class);
+
+    // hedge delay used until enough latency samples are recorded
+    private static final long INITIAL_HEDGE_DELAY_MS = 200;
+    private static final int MIN_SAMPLES = 20;
+    private static final int SAMPLE_SIZE = 256;
+
+    private final PeerPool peerPool;
+    private final boolean hedging;
+    private final double percentile;
+    private final long minDelayMillis;
+    private final ExecutorService executor = Executors.newCachedThreadPool(new NamedThreadFactory("hedged-query"));
+
+    // ring buffer of recent query latencies
+    private final long[] samples = new long[SAMPLE_SIZE];
+    private int sampleCount;
+    private int sampleIndex;
+
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+
+    /**
+     * @param peerPool PeerPool: peers to query
+     * @param hedging boolean: enables hedged queries
+     * @param percentile double: latency percentile of recent queries after which the hedge request is sent
+     * @param minDelayMillis long: minimum delay before the hedge request is sent
+     */
+    public HedgedQueryExecutor(PeerPool peerPool, boolean hedging, double percentile, long minDelayMillis) {
+        this.peerPool = peerPool;
+        this.hedging = hedging;
+        this.percentile = percentile;
+        this.minDelayMillis = minDelayMillis;
+    }
+
+    /**
+     * Sends the query and returns the response of the peer which answered first
+     *
+     * @param channel Channel: initialized channel
+     * @param request QueryByChaincodeRequest: query proposal
+     * @return ProposalResponse: successful or chaincode error response
+     * @throws ProposalException if no peer answered, e.g. none could be reached or all timed out
+     */
+    public ProposalResponse execute(Channel channel, QueryByChaincodeRequest request)
+            throws ProposalException, InvalidArgumentException {
+        queries.incrementAndGet();
+        Peer primary = peerPool.selectForQuery();
+        if (!hedging || peerPool.size() < 2) {
+            return answered(send(channel, request, primary));
+        }
+
+        CompletionService<ProposalResponse> completion = new ExecutorCompletionService<>(executor);
+        List<Future<ProposalResponse>> futures = new ArrayList<>(2);
+        futures.add(completion.submit(() -> send(channel, request, primary)));
+
+        ProposalResponse fallback = null;
+        Throwable error = null;
+        try {
+            Future<ProposalResponse> done = completion.poll(hedgeDelayMillis(), TimeUnit.MILLISECONDS);
+            int pending = 1;
+            if (done != null) {
+                pending--;
+                try {
+                    ProposalResponse response = done.get();
+                    if (isAnswered(response)) {
+                        return response;
+                    }
+                    fallback = response;
+                } catch (ExecutionException e) {
+                    error = e.getCause();
+                }
+            }
+
+            // No answer from the primary peer within the hedge delay, ask the next best peer
+            List<Peer> others = peerPool.select(1, Collections.singleton(primary));
+            if (!others.isEmpty() && others.get(0) != primary) {
+                Peer secondary = others.get(0);
+                hedges.incrementAndGet();
+                log.debug("Hedging query to peer " + secondary.getName() + ", no answer from " + primary.getName());
+                futures.add(completion.submit(() -> send(channel, request, secondary)));
+                pending++;
+            }
+
+            while (pending > 0) {
+                done = completion.take();
+                pending--;
+                try {
+                    ProposalResponse response = done.get();
+                    if (isAnswered(response)) {
+                        if (done != futures.get(0)) {
+                            hedgeWins.incrementAndGet();
+                        }
+                        return response;
+                    }
+                    if (fallback == null) {
+                        fallback = response;
+                    }
+                } catch (ExecutionException e) {
+                    if (error == null) {
+                        error = e.getCause();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProposalException("Interrupted while waiting for query response", e);
+        } finally {
+            // cancel the request which lost the race
+            futures.forEach(future -> future.cancel(true));
+        }
+
+        if (fallback != null) {
+            return answered(fallback);
+        }
+        if (error instanceof ProposalException) {
+            throw (ProposalException) error;
+        }
+        if (error instanceof InvalidArgumentException) {
+            throw (InvalidArgumentException) error;
+        }
+        throw new ProposalException("Query failed on all peers", error);
+    }
+
+    /**
+     * Query counters
+     *
+     * @return Map of counter name to value
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hedging", hedging);
+        stats.put("queries", queries.get());
+        stats.put("hedges", hedges.get());
+        stats.put("hedgeWins", hedgeWins.get());
+        stats.put("hedgeDelayMs", hedgeDelayMillis());
+        return stats;
+    }
+
+    private ProposalResponse send(Channel channel, QueryByChaincodeRequest request, Peer peer)
+            throws ProposalException, InvalidArgumentException {
+        long start = peerPool.start(peer);
+        boolean success = false;
+        try {
+            Collection<ProposalResponse> responses = channel.queryByChaincode(request, Collections.singletonList(peer));
+            if (responses.isEmpty()) {
+                throw new ProposalException("No response from peer " + peer.getName());
+            }
+            ProposalResponse response = responses.iterator().next();
+            success = isAnswered(response);
+            if (success) {
+                recordLatency(System.nanoTime() - start);
+            }
+            return response;
+        } finally {
+            peerPool.complete(peer, start, success);
+        }
+    }
+
+    /**
+     * Returns the response if the peer answered, a peer that could not be reached is a network failure
+     */
+    private static ProposalResponse answered(ProposalResponse response) throws ProposalException {
+        if (!isAnswered(response)) {
+            throw new ProposalException("No answer from peer "
+                    + (response.getPeer() == null ? "" : response.getPeer().getName()) + " - " + response.getMessage());
+        }
+        return response;
+    }
+
+    /**
+     * True if the peer answered, successfully or with a chaincode error. The SDK reports a peer it could not reach or
+     * that timed out as a failed response without a peer proposal response.
+     */
+    static boolean isAnswered(ProposalResponse response) {
+        return response.getStatus() == ChaincodeResponse.Status.SUCCESS || response.getProposalResponse() != null;
+    }
+
+    private synchronized void recordLatency(long nanos) {
+        samples[sampleIndex] = nanos;
+        sampleIndex = (sampleIndex + 1) % SAMPLE_SIZE;
+        sampleCount = Math.min(sampleCount + 1, SAMPLE_SIZE);
+    }
+
+    private long hedgeDelayMillis() {
+        long[] sorted;
+        synchronized (this) {
+            if (sampleCount < MIN_SAMPLES) {
+                return Math.max(minDelayMillis, INITIAL_HEDGE_DELAY_MS);
+            }
+            sorted = Arrays.copyOf(samples, sampleCount);
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(percentile / 100.0 * sorted.length) - 1);
+        return Math.max(minDelayMillis, TimeUnit.NANOSECONDS.toMillis(sorted[Math.max(0, index)]));
+    }
+}
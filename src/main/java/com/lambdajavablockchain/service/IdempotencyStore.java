@@ -0,0 +1,179 @@
+package com.lambdajavablockchain.service;
+
+import com.lambdajavablockchain.exception.AppException;
+import com.lambdajavablockchain.exception.IdempotencyConflictException;
+import com.lambdajavablockchain.exception.ManagedBlockchainServiceException;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded in-memory store of idempotency keys, mapping each key to the transaction id of the invoke it was first sent
+ * with. A repeated invoke with the same key returns the original transaction id without endorsing again, an invoke
+ * still in flight is shared with the repeated one. Keys expire after a configurable TTL and the least recently used
+ * key is evicted once the store is full. A key whose invoke failed is removed so that the client can retry it.
+ *
+ */
+public class IdempotencyStore {
+
+    public static final int MAX_KEY_LENGTH = 255;
+
+    /**
+     * Sends the invoke the first time a key is seen
+     */
+    public interface Invoke {
+        CompletableFuture<String> invoke() throws ManagedBlockchainServiceException;
+    }
+
+    private static class Entry {
+        private final String fingerprint;
+        private final CompletableFuture<String> txId;
+        private final long expiresAt;
+
+        private Entry(String fingerprint, CompletableFuture<String> txId, long expiresAt) {
+            this.fingerprint = fingerprint;
+            this.txId = txId;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final long ttlNanos;
+    private final int maxSize;
+    private final Map<String, Entry> entries;
+
+    private final AtomicLong invokes = new AtomicLong();
+    private final AtomicLong replays = new AtomicLong();
+    private final AtomicLong conflicts = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param ttlSeconds long: time a key is remembered, 0 disables the store
+     * @param maxSize int: maximum number of keys kept in memory
+     */
+    public IdempotencyStore(long ttlSeconds, int maxSize) {
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(Math.max(0, ttlSeconds));
+        this.maxSize = Math.max(1, maxSize);
+        // access-ordered map, the eldest entry is the least recently used one
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > IdempotencyStore.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Sends the invoke, or returns the transaction id of the invoke first sent with {@code key}
+     *
+     * @param key String: idempotency key sent by the client, null to always send the invoke
+     * @param fingerprint String: identifies the invoke, see fingerprint()
+     * @param invoke Invoke: sent on the first use of the key
+     * @return CompletableFuture completed with the transaction id
+     * @throws IdempotencyConflictException if the key was first used with a different invoke
+     * @throws AppException if the key is invalid
+     */
+    public CompletableFuture<String> execute(String key, String fingerprint, Invoke invoke)
+            throws AppException, ManagedBlockchainServiceException {
+        if (key == null || ttlNanos == 0) {
+            return invoke.invoke();
+        }
+        if (key.isEmpty() || key.length() > MAX_KEY_LENGTH) {
+            throw new AppException("Idempotency key must have 1 to " + MAX_KEY_LENGTH + " characters");
+        }
+
+        CompletableFuture<String> txId = new CompletableFuture<>();
+        Entry entry = new Entry(fingerprint, txId, System.nanoTime() + ttlNanos);
+        synchronized (entries) {
+            Entry existing = entries.get(key);
+            if (existing != null && System.nanoTime() - existing.expiresAt < 0) {
+                if (!existing.fingerprint.equals(fingerprint)) {
+                    conflicts.incrementAndGet();
+                    throw new IdempotencyConflictException("Idempotency key " + key
+                            + " was already used with a different request");
+                }
+                replays.incrementAndGet();
+                return existing.txId;
+            }
+            entries.put(key, entry);
+        }
+
+        invokes.incrementAndGet();
+        CompletableFuture<String> sent;
+        try {
+            sent = invoke.invoke();
+        } catch (ManagedBlockchainServiceException | RuntimeException e) {
+            forget(key, entry);
+            txId.completeExceptionally(e);
+            throw e;
+        }
+        sent.whenComplete((id, error) -> {
+            if (error == null) {
+                txId.complete(id);
+            } else {
+                forget(key, entry);
+                txId.completeExceptionally(error);
+            }
+        });
+        return txId;
+    }
+
+    private void forget(String key, Entry entry) {
+        synchronized (entries) {
+            entries.remove(key, entry);
+        }
+    }
+
+    /**
+     * Fingerprint of an invoke, a key reused with a different fingerprint is rejected
+     *
+     * @return String: SHA-256 digest of the identity, chaincode, function and arguments
+     */
+    public static String fingerprint(String userName, String chaincodeName, String functionName, String... args) {
+        StringBuilder request = new StringBuilder()
+                .append(userName).append('\u0000').append(chaincodeName).append('\u0000').append(functionName);
+        for (String arg : args) {
+            request.append('\u0000').append(arg);
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(digest.digest(request.toString().getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is available on every JVM
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Idempotency counters
+     *
+     * @return Map of counter name to value
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", ttlNanos > 0);
+        stats.put("size", size());
+        stats.put("maxSize", maxSize);
+        stats.put("invokes", invokes.get());
+        stats.put("replays", replays.get());
+        stats.put("conflicts", conflicts.get());
+        stats.put("evictions", evictions.get());
+        return stats;
+    }
+}
@@ -0,0 +1,338 @@
+package com.lambdajavablockchain.service;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.lambdajavablockchain.exception.AppException;
+import com.lambdajavablockchain.model.Car;
+import com.lambdajavablockchain.model.HistoryRecord;
+import org.hyperledger.fabric.sdk.BlockEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-instance cache of the history of ledger keys. Committed history never changes, a cached history is kept for as
+ * long as it fits in the cache: the changes committed afterwards are appended to it from the write sets of the
+ * delivered blocks, so a repeated read costs no peer call. A history is only dropped when a block was missed (e.g.
+ * after the channel was rebuilt), it is then queried again in full.
+ *
+ * The peer answering a history query may lag a few blocks behind the delivered ones, the changes of the most recent
+ * blocks are kept and appended to a queried history that does not have them yet.
+ *
+ */
+public class KeyHistoryCache implements BlockEventConsumer {
+
+    private static final Logger log = LoggerFactory.getLogger(KeyHistoryCache.class);
+
+    // ledger values may carry fields unknown to Car, e.g. a docType
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private static final ObjectReader CAR_READER = MAPPER.readerFor(Car.class);
+
+    /**
+     * History of a key and the block it is current to
+     */
+    public static class History {
+        private final List<HistoryRecord> records;
+        private final long blockNumber;
+
+        private History(List<HistoryRecord> records, long blockNumber) {
+            this.records = records;
+            this.blockNumber = blockNumber;
+        }
+
+        public List<HistoryRecord> getRecords() {
+            return records;
+        }
+
+        public long getBlockNumber() {
+            return blockNumber;
+        }
+    }
+
+    private static class Entry {
+        private final List<HistoryRecord> records;
+        private final Set<String> txIds = new HashSet<>();
+        private final long generation;
+
+        private Entry(List<HistoryRecord> records, long generation) {
+            this.records = new ArrayList<>(records);
+            this.generation = generation;
+            for (HistoryRecord record : records) {
+                txIds.add(record.getTxId());
+            }
+        }
+
+        private void append(HistoryRecord record) {
+            // a block delivered while the history was queried may already be part of it
+            if (txIds.add(record.getTxId())) {
+                records.add(record);
+            }
+        }
+    }
+
+    /**
+     * Change of a key written by a recently delivered block
+     */
+    private static class RecentWrite {
+        private final String key;
+        private final HistoryRecord record;
+
+        private RecentWrite(String key, HistoryRecord record) {
+            this.key = key;
+            this.record = record;
+        }
+    }
+
+    private final BlockEventRouter blockEventRouter;
+    private final boolean enabled;
+    private final String chaincodeName;
+    private final int maxKeys;
+    private final int recentBlocks;
+    private final Map<String, Entry> entries;
+    // guarded by entries, changes of the last recentBlocks delivered blocks, oldest block first
+    private final ArrayDeque<List<RecentWrite>> recent = new ArrayDeque<>();
+    private long lastBlockNumber = -1;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong appended = new AtomicLong();
+    private final AtomicLong gaps = new AtomicLong();
+    private final AtomicLong staleDiscards = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong recentAppended = new AtomicLong();
+
+    /**
+     * @param blockEventRouter BlockEventRouter: source of the delivered blocks
+     * @param enabled boolean: disables the cache when false, every read queries the peer
+     * @param chaincodeName String: chaincode owning the keys
+     * @param maxKeys int: maximum number of key histories kept in memory
+     * @param recentBlocks int: number of delivered blocks a queried history may be missing, the peer lag tolerance
+     *                     plus one
+     */
+    public KeyHistoryCache(BlockEventRouter blockEventRouter, boolean enabled, String chaincodeName, int maxKeys,
+                           int recentBlocks) {
+        this.blockEventRouter = blockEventRouter;
+        this.enabled = enabled;
+        this.chaincodeName = chaincodeName;
+        this.maxKeys = Math.max(1, maxKeys);
+        this.recentBlocks = Math.max(0, recentBlocks);
+        // access-ordered map, the eldest entry is the least recently used one
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > KeyHistoryCache.this.maxKeys) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+        if (enabled) {
+            blockEventRouter.addConsumer(this);
+        }
+    }
+
+    public String getChaincodeName() {
+        return chaincodeName;
+    }
+
+    /**
+     * Cached history of a key
+     *
+     * @param key String: ledger key
+     * @return History, null on a miss
+     */
+    public History get(String key) {
+        if (!enabled) {
+            return null;
+        }
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                hits.incrementAndGet();
+                return new History(new ArrayList<>(entry.records), Math.max(lastBlockNumber, entry.generation));
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Block number to pass to put(), read before the history is queried
+     *
+     * @return long
+     */
+    public long generation() {
+        return blockEventRouter.getLastBlockNumber();
+    }
+
+    /**
+     * Stores the history of a key queried from a peer, unless a block was delivered since {@code generation}.
+     * The changes of the recent blocks the peer had not committed yet are appended to it.
+     *
+     * @param key String: ledger key
+     * @param generation long: value returned by generation() before the history was queried
+     * @param records List of HistoryRecord, oldest change first
+     * @return History
+     */
+    public History put(String key, long generation, List<HistoryRecord> records) {
+        if (enabled) {
+            synchronized (entries) {
+                // checked under the lock, a block delivered concurrently is either already counted or appended later
+                if (generation == blockEventRouter.getLastBlockNumber()) {
+                    Entry entry = new Entry(records, generation);
+                    for (List<RecentWrite> block : recent) {
+                        for (RecentWrite write : block) {
+                            if (write.key.equals(key) && entry.txIds.add(write.record.getTxId())) {
+                                entry.records.add(write.record);
+                                recentAppended.incrementAndGet();
+                            }
+                        }
+                    }
+                    entries.put(key, entry);
+                    return new History(new ArrayList<>(entry.records), generation);
+                } else {
+                    staleDiscards.incrementAndGet();
+                }
+            }
+        }
+        return new History(records, generation);
+    }
+
+    @Override
+    public void onBlock(BlockEvent blockEvent) {
+        long blockNumber = blockEvent.getBlockNumber();
+        synchronized (entries) {
+            if (lastBlockNumber >= 0 && blockNumber != lastBlockNumber + 1) {
+                // the changes committed in the missed blocks are unknown, the cached histories may be incomplete
+                gaps.incrementAndGet();
+                log.warn("Blocks " + (lastBlockNumber + 1) + " to " + (blockNumber - 1)
+                        + " were not delivered, dropping cached key histories");
+                entries.clear();
+                recent.clear();
+            }
+            lastBlockNumber = blockNumber;
+            List<RecentWrite> blockWrites = new ArrayList<>();
+            for (BlockEvent.TransactionEvent transaction : blockEvent.getTransactionEvents()) {
+                if (!transaction.isValid()) {
+                    continue;
+                }
+                String timestamp = transaction.getTimestamp() == null ? null
+                        : transaction.getTimestamp().toInstant().toString();
+                for (LedgerWrite write : LedgerWrite.fromTransaction(blockNumber, transaction)) {
+                    if (!chaincodeName.equals(write.getNamespace())) {
+                        continue;
+                    }
+                    HistoryRecord record = new HistoryRecord(write.getTxId(), timestamp, write.isDelete(),
+                            write.isDelete() ? null : car(write.getKey(), write.getValue()));
+                    blockWrites.add(new RecentWrite(write.getKey(), record));
+                    Entry entry = entries.get(write.getKey());
+                    if (entry != null) {
+                        entry.append(record);
+                        appended.incrementAndGet();
+                    }
+                }
+            }
+            if (recentBlocks > 0) {
+                if (recent.size() >= recentBlocks) {
+                    recent.poll();
+                }
+                recent.add(blockWrites);
+            }
+        }
+    }
+
+    /**
+     * Reads the history returned by the chaincode, a JSON array of
+     * {@code {"TxId": ..., "Value": {...}, "Timestamp": ..., "IsDelete": ...}} records, oldest change first
+     *
+     * @param key String: ledger key the history belongs to
+     * @param payload byte[]: chaincode response payload
+     * @return List of HistoryRecord
+     */
+    public static List<HistoryRecord> fromChaincode(String key, byte[] payload) throws AppException {
+        JsonNode records;
+        try {
+            records = MAPPER.readTree(payload);
+        } catch (IOException e) {
+            throw new AppException("History query returned invalid JSON", e);
+        }
+        if (records == null || !records.isArray()) {
+            throw new AppException("History query must return a JSON array");
+        }
+        List<HistoryRecord> history = new ArrayList<>(records.size());
+        for (JsonNode record : records) {
+            boolean delete = record.path("IsDelete").asBoolean(false);
+            JsonNode value = record.path("Value");
+            Car car = null;
+            if (!delete && !value.isMissingNode() && !value.isNull()) {
+                car = value.isTextual() ? car(key, value.asText().getBytes(StandardCharsets.UTF_8)) : car(key, value);
+            }
+            history.add(new HistoryRecord(record.path("TxId").asText(null), timestamp(record.path("Timestamp")),
+                    delete, car));
+        }
+        return history;
+    }
+
+    /**
+     * Timestamp as an ISO-8601 string, chaincodes return either text or a {seconds, nanos} object
+     */
+    private static String timestamp(JsonNode timestamp) {
+        if (timestamp.has("seconds")) {
+            return Instant.ofEpochSecond(timestamp.path("seconds").asLong(), timestamp.path("nanos").asLong()).toString();
+        }
+        return timestamp.isMissingNode() || timestamp.isNull() ? null : timestamp.asText();
+    }
+
+    private static Car car(String key, byte[] value) {
+        try {
+            return car(key, MAPPER.readTree(value));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static Car car(String key, JsonNode value) {
+        try {
+            Car car = CAR_READER.readValue(value);
+            car.setId(key);
+            return car;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * History cache counters
+     *
+     * @return Map of counter name to value
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("keys", size());
+        stats.put("maxKeys", maxKeys);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("appended", appended.get());
+        stats.put("gaps", gaps.get());
+        stats.put("staleDiscards", staleDiscards.get());
+        stats.put("evictions", evictions.get());
+        stats.put("recentAppended", recentAppended.get());
+        return stats;
+    }
+}
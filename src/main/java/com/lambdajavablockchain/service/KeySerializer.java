@@ -0,0 +1,150 @@
+package com.lambdajavablockchain.service;
+
+import com.lambdajavablockchain.exception.ManagedBlockchainServiceException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Serializes the writes to the same ledger key inside an instance: a write is only endorsed once the previous write
+ * to its key is committed, so it reads the committed value instead of being invalidated by a read conflict.
+ * Keys are hashed to a fixed number of stripes, unrelated keys sharing a stripe are serialized as well.
+ * A write waits at most {@code waitMillis} for the previous one, a lost commit event cannot block a key forever.
+ *
+ */
+public class KeySerializer {
+
+    /**
+     * Starts the write, e.g. by endorsing it
+     */
+    public interface Write {
+        CompletableFuture<String> start() throws ManagedBlockchainServiceException;
+    }
+
+    private final boolean enabled;
+    private final long waitMillis;
+    private final Function<String, CompletableFuture<?>> outcome;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService timeouts;
+    private final CompletableFuture<?>[] tails;
+
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+
+    /**
+     * @param enabled boolean: writes start immediately when false
+     * @param stripes int: number of independent queues
+     * @param waitMillis long: maximum time a write waits for the previous write to its key
+     * @param outcome Function: final outcome of a transaction id, the key is released once it completes
+     * @param executor ExecutorService: starts the queued writes
+     * @param timeouts ScheduledExecutorService: expires the waits
+     */
+    public KeySerializer(boolean enabled, int stripes, long waitMillis, Function<String, CompletableFuture<?>> outcome,
+                         ExecutorService executor, ScheduledExecutorService timeouts) {
+        this.enabled = enabled;
+        this.waitMillis = waitMillis;
+        this.outcome = outcome;
+        this.executor = executor;
+        this.timeouts = timeouts;
+        this.tails = new CompletableFuture<?>[Math.max(1, stripes)];
+        for (int i = 0; i < tails.length; i++) {
+            tails[i] = CompletableFuture.completedFuture(null);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts {@code write} once the previous write to {@code key} is committed. Writes to an idle key start on the
+     * calling thread, exceptions are then thrown instead of completing the returned future.
+     *
+     * @param key String: ledger key written, null if unknown
+     * @param write Write: starts the write and returns its transaction id
+     * @return CompletableFuture completed with the transaction id
+     */
+    public CompletableFuture<String> execute(String key, Write write) throws ManagedBlockchainServiceException {
+        if (!enabled || key == null) {
+            return write.start();
+        }
+        writes.incrementAndGet();
+
+        CompletableFuture<Void> released = new CompletableFuture<>();
+        CompletableFuture<?> previous;
+        int stripe = (key.hashCode() & Integer.MAX_VALUE) % tails.length;
+        synchronized (tails) {
+            previous = tails[stripe];
+            tails[stripe] = released;
+        }
+
+        if (previous.isDone()) {
+            return start(write, released);
+        }
+
+        queued.incrementAndGet();
+        CompletableFuture<Void> ready = new CompletableFuture<>();
+        ScheduledFuture<?> timeout = timeouts.schedule(() -> {
+            if (ready.complete(null)) {
+                timedOut.incrementAndGet();
+            }
+        }, waitMillis, TimeUnit.MILLISECONDS);
+        previous.whenComplete((result, error) -> {
+            timeout.cancel(false);
+            ready.complete(null);
+        });
+        // the queued write starts on the executor, not on the thread delivering the previous commit event
+        return ready.thenComposeAsync(ignored -> {
+            try {
+                return start(write, released);
+            } catch (ManagedBlockchainServiceException e) {
+                CompletableFuture<String> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                return failed;
+            }
+        }, executor);
+    }
+
+    private CompletableFuture<String> start(Write write, CompletableFuture<Void> released)
+            throws ManagedBlockchainServiceException {
+        CompletableFuture<String> started;
+        try {
+            started = write.start();
+        } catch (ManagedBlockchainServiceException | RuntimeException e) {
+            released.complete(null);
+            throw e;
+        }
+        started.whenComplete((txId, error) -> {
+            CompletableFuture<?> committed = error == null ? outcome.apply(txId) : null;
+            if (committed == null) {
+                released.complete(null);
+            } else {
+                committed.whenComplete((status, e) -> released.complete(null));
+            }
+        });
+        return started;
+    }
+
+    /**
+     * Serialization counters
+     *
+     * @return Map of counter name to value
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("stripes", tails.length);
+        stats.put("writes", writes.get());
+        stats.put("queued", queued.get());
+        stats.put("timedOut", timedOut.get());
+        return stats;
+    }
+}
@@ -0,0 +1,375 @@
+package com.lambdajavablockchain.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lambdajavablockchain.model.AMBConfig;
+
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histograms of the phases of a request: client setup, user loading, channel initialization, queries,
+ * endorsement, orderer submission and commit, per phase and per chaincode/function. A sample costs a bucket lookup and a
+ * few atomic increments, plus a short per-histogram lock when the samples are kept for EMF.
+ *
+ * In Lambda the samples recorded since the previous invocation are written after each invocation as CloudWatch
+ * Embedded Metric Format log lines, together with cold and warm start counts. In server mode the histograms are
+ * scraped in Prometheus text format.
+ *
+ * The instance is shared by the Lambda handler and the Spring beans, it exists before the application context.
+ *
+ */
+public class LatencyMetrics {
+
+    public static final String SETUP_CLIENT = "setupClient";
+    public static final String LOAD_USER = "loadUser";
+    public static final String INIT_CHANNEL = "initChannel";
+    public static final String QUERY = "query";
+    public static final String ENDORSE = "endorse";
+    public static final String SUBMIT = "submit";
+    public static final String COMMIT = "commit";
+    public static final String INVOCATION = "invocation";
+
+    // chaincode/function series beyond the limit are recorded under this name, the function name comes from clients
+    private static final String OTHER = "other";
+    // bucket upper bounds in milliseconds, the last bucket is unbounded
+    private static final double[] BUCKETS_MS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000};
+    // EMF accepts at most 100 values per metric
+    private static final int MAX_EMF_SAMPLES = 100;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final LatencyMetrics INSTANCE = new LatencyMetrics(AMBConfig.METRICS_ENABLED,
+            AMBConfig.METRICS_EMF_ENABLED, AMBConfig.METRICS_NAMESPACE, AMBConfig.METRICS_MAX_SERIES);
+
+    public static LatencyMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    private class Histogram {
+        private final String phase;
+        private final String chaincodeName;
+        private final String functionName;
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS_MS.length + 1);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+        // guarded by this, only filled when EMF is enabled
+        private double[] samples;
+        private int sampleCount;
+
+        private Histogram(String phase, String chaincodeName, String functionName) {
+            this.phase = phase;
+            this.chaincodeName = chaincodeName;
+            this.functionName = functionName;
+        }
+
+        private void record(long nanos) {
+            double millis = nanos / 1_000_000.0;
+            int bucket = 0;
+            while (bucket < BUCKETS_MS.length && millis > BUCKETS_MS[bucket]) {
+                bucket++;
+            }
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+            if (emfEnabled) {
+                synchronized (this) {
+                    if (samples == null) {
+                        samples = new double[MAX_EMF_SAMPLES];
+                    }
+                    if (sampleCount < MAX_EMF_SAMPLES) {
+                        samples[sampleCount++] = millis;
+                    } else {
+                        droppedSamples.incrementAndGet();
+                    }
+                }
+            }
+        }
+
+        private synchronized double[] takeSamples() {
+            double[] taken = samples == null ? new double[0] : Arrays.copyOf(samples, sampleCount);
+            sampleCount = 0;
+            return taken;
+        }
+
+        /**
+         * Upper bound of the bucket holding the given percentile, at most the maximum; the bucket resolution bounds
+         * the error
+         */
+        private double percentile(double percentile) {
+            long total = count.get();
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percentile / 100.0 * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS_MS.length; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(BUCKETS_MS[i], maxNanos.get() / 1_000_000.0);
+                }
+            }
+            return maxNanos.get() / 1_000_000.0;
+        }
+    }
+
+    private final boolean enabled;
+    private final boolean emfEnabled;
+    private final String namespace;
+    private final int maxSeries;
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    private final AtomicLong coldStarts = new AtomicLong();
+    private final AtomicLong warmStarts = new AtomicLong();
+    // guarded by this, counts since the last EMF flush
+    private long pendingColdStarts;
+    private long pendingWarmStarts;
+    private final AtomicLong droppedSamples = new AtomicLong();
+
+    /**
+     * @param enabled boolean: nothing is recorded when false
+     * @param emfEnabled boolean: keep the samples to write as EMF log lines, when running in Lambda
+     * @param namespace String: CloudWatch namespace of the EMF metrics
+     * @param maxSeries int: number of histograms after which new chaincode/function series are recorded as "other"
+     */
+    public LatencyMetrics(boolean enabled, boolean emfEnabled, String namespace, int maxSeries) {
+        this.enabled = enabled;
+        this.emfEnabled = enabled && emfEnabled;
+        this.namespace = namespace;
+        this.maxSeries = Math.max(0, maxSeries);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Start time of a phase, to pass to record()
+     *
+     * @return long: System.nanoTime()
+     */
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the duration of a phase since {@code startNanos}
+     *
+     * @param phase String: phase name
+     * @param startNanos long: value returned by start()
+     */
+    public void record(String phase, long startNanos) {
+        if (enabled) {
+            histogram(phase, null, null).record(System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Records the duration of a phase of a chaincode call, in the phase histogram and in the chaincode/function one
+     *
+     * @param phase String: phase name
+     * @param chaincodeName String: chaincode called
+     * @param functionName String: function called
+     * @param startNanos long: value returned by start()
+     */
+    public void record(String phase, String chaincodeName, String functionName, long startNanos) {
+        if (enabled) {
+            long nanos = System.nanoTime() - startNanos;
+            histogram(phase, null, null).record(nanos);
+            histogram(phase, String.valueOf(chaincodeName), String.valueOf(functionName)).record(nanos);
+        }
+    }
+
+    private Histogram histogram(String phase, String chaincodeName, String functionName) {
+        String key = chaincodeName == null ? phase : phase + '\u0000' + chaincodeName + '\u0000' + functionName;
+        Histogram histogram = histograms.get(key);
+        if (histogram != null) {
+            return histogram;
+        }
+        if (chaincodeName != null && histograms.size() >= maxSeries) {
+            return histograms.computeIfAbsent(phase + '\u0000' + OTHER + '\u0000' + OTHER,
+                    k -> new Histogram(phase, OTHER, OTHER));
+        }
+        return histograms.computeIfAbsent(key, k -> new Histogram(phase, chaincodeName, functionName));
+    }
+
+    /**
+     * Records a Lambda invocation and its duration
+     *
+     * @param coldStart boolean: true for the first invocation of the function instance
+     * @param startNanos long: value returned by start() when the invocation began
+     */
+    public void recordInvocation(boolean coldStart, long startNanos) {
+        if (!enabled) {
+            return;
+        }
+        (coldStart ? coldStarts : warmStarts).incrementAndGet();
+        synchronized (this) {
+            if (coldStart) {
+                pendingColdStarts++;
+            } else {
+                pendingWarmStarts++;
+            }
+        }
+        record(INVOCATION, startNanos);
+    }
+
+    /**
+     * Writes the samples recorded since the previous call as EMF log lines, one line per histogram with samples
+     *
+     * @param out PrintStream: stdout of the Lambda function, read by CloudWatch Logs
+     */
+    public void writeEmf(PrintStream out) {
+        if (!emfEnabled) {
+            return;
+        }
+        long timestamp = System.currentTimeMillis();
+        long cold;
+        long warm;
+        synchronized (this) {
+            cold = pendingColdStarts;
+            warm = pendingWarmStarts;
+            pendingColdStarts = 0;
+            pendingWarmStarts = 0;
+        }
+        if (cold > 0 || warm > 0) {
+            Map<String, Object> line = emfLine(timestamp, Collections.emptyList(),
+                    Arrays.asList(metric("ColdStart", "Count"), metric("WarmStart", "Count")));
+            line.put("ColdStart", cold);
+            line.put("WarmStart", warm);
+            print(out, line);
+        }
+        for (Histogram histogram : histograms.values()) {
+            double[] samples = histogram.takeSamples();
+            if (samples.length == 0) {
+                continue;
+            }
+            List<String> dimensions = histogram.chaincodeName == null ? Collections.singletonList("Phase")
+                    : Arrays.asList("Phase", "ChaincodeName", "FunctionName");
+            Map<String, Object> line = emfLine(timestamp, dimensions,
+                    Collections.singletonList(metric("Latency", "Milliseconds")));
+            line.put("Phase", histogram.phase);
+            if (histogram.chaincodeName != null) {
+                line.put("ChaincodeName", histogram.chaincodeName);
+                line.put("FunctionName", histogram.functionName);
+            }
+            line.put("Latency", samples);
+            print(out, line);
+        }
+    }
+
+    private Map<String, Object> emfLine(long timestamp, List<String> dimensions, List<Map<String, String>> metrics) {
+        Map<String, Object> directive = new LinkedHashMap<>();
+        directive.put("Namespace", namespace);
+        directive.put("Dimensions", Collections.singletonList(dimensions));
+        directive.put("Metrics", metrics);
+        Map<String, Object> aws = new LinkedHashMap<>();
+        aws.put("Timestamp", timestamp);
+        aws.put("CloudWatchMetrics", Collections.singletonList(directive));
+        Map<String, Object> line = new LinkedHashMap<>();
+        line.put("_aws", aws);
+        return line;
+    }
+
+    private static Map<String, String> metric(String name, String unit) {
+        Map<String, String> metric = new LinkedHashMap<>();
+        metric.put("Name", name);
+        metric.put("Unit", unit);
+        return metric;
+    }
+
+    private static void print(PrintStream out, Map<String, Object> line) {
+        try {
+            out.println(MAPPER.writeValueAsString(line));
+        } catch (JsonProcessingException e) {
+            // the line only holds strings and numbers
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Histograms in Prometheus text format, for scraping in server mode
+     *
+     * @return String
+     */
+    public String toPrometheus() {
+        StringBuilder out = new StringBuilder();
+        out.append("# HELP fabric_phase_latency_ms Latency of the request phases in milliseconds\n");
+        out.append("# TYPE fabric_phase_latency_ms histogram\n");
+        for (Histogram histogram : sorted()) {
+            StringBuilder labels = new StringBuilder("phase=\"").append(escape(histogram.phase)).append('"');
+            if (histogram.chaincodeName != null) {
+                labels.append(",chaincode=\"").append(escape(histogram.chaincodeName))
+                        .append("\",function=\"").append(escape(histogram.functionName)).append('"');
+            }
+            long cumulative = 0;
+            for (int i = 0; i <= BUCKETS_MS.length; i++) {
+                cumulative += histogram.buckets.get(i);
+                String le = i < BUCKETS_MS.length ? formatBound(BUCKETS_MS[i]) : "+Inf";
+                out.append("fabric_phase_latency_ms_bucket{").append(labels).append(",le=\"").append(le).append("\"} ")
+                        .append(cumulative).append('\n');
+            }
+            out.append("fabric_phase_latency_ms_sum{").append(labels).append("} ")
+                    .append(histogram.totalNanos.get() / 1_000_000.0).append('\n');
+            out.append("fabric_phase_latency_ms_count{").append(labels).append("} ")
+                    .append(histogram.count.get()).append('\n');
+        }
+        out.append("# HELP fabric_invocations_total Invocations of the function instance by start type\n");
+        out.append("# TYPE fabric_invocations_total counter\n");
+        out.append("fabric_invocations_total{start=\"cold\"} ").append(coldStarts.get()).append('\n');
+        out.append("fabric_invocations_total{start=\"warm\"} ").append(warmStarts.get()).append('\n');
+        return out.toString();
+    }
+
+    private static String formatBound(double bound) {
+        return bound == Math.rint(bound) ? String.valueOf((long) bound) : String.valueOf(bound);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private List<Histogram> sorted() {
+        List<Histogram> sorted = new ArrayList<>(histograms.values());
+        sorted.sort(Comparator.comparing((Histogram h) -> h.phase)
+                .thenComparing(h -> h.chaincodeName == null ? "" : h.chaincodeName + '\u0000' + h.functionName));
+        return sorted;
+    }
+
+    /**
+     * Latency summary per phase and per chaincode/function, percentiles are bucket upper bounds
+     *
+     * @return Map of counter name to value
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("emfEnabled", emfEnabled);
+        stats.put("coldStarts", coldStarts.get());
+        stats.put("warmStarts", warmStarts.get());
+        stats.put("droppedSamples", droppedSamples.get());
+        Map<String, Object> phases = new LinkedHashMap<>();
+        for (Histogram histogram : sorted()) {
+            long count = histogram.count.get();
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("count", count);
+            summary.put("meanMs", count == 0 ? 0 : histogram.totalNanos.get() / 1_000_000.0 / count);
+            summary.put("p50Ms", histogram.percentile(50));
+            summary.put("p90Ms", histogram.percentile(90));
+            summary.put("p99Ms", histogram.percentile(99));
+            summary.put("maxMs", histogram.maxNanos.get() / 1_000_000.0);
+            String name = histogram.chaincodeName == null ? histogram.phase
+                    : histogram.phase + "/" + histogram.chaincodeName + "/" + histogram.functionName;
+            phases.put(name, summary);
+        }
+        stats.put("phases", phases);
+        return stats;
+    }
+}
@@ -0,0 +1,107 @@
+package com.lambdajavablockchain.service;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.hyperledger.fabric.protos.ledger.rwset.kvrwset.KvRwset;
+import org.hyperledger.fabric.sdk.BlockEvent;
+import org.hyperledger.fabric.sdk.BlockInfo;
+import org.hyperledger.fabric.sdk.TxReadWriteSetInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A key written by a valid transaction of a block
+ *
+ */
+public class LedgerWrite {
+
+    private static final Logger log = LoggerFactory.getLogger(LedgerWrite.class);
+
+    private final long blockNumber;
+    private final String txId;
+    private final String namespace;
+    private final String key;
+    private final byte[] value;
+    private final boolean delete;
+
+    public LedgerWrite(long blockNumber, String txId, String namespace, String key, byte[] value, boolean delete) {
+        this.blockNumber = blockNumber;
+        this.txId = txId;
+        this.namespace = namespace;
+        this.key = key;
+        this.value = value;
+        this.delete = delete;
+    }
+
+    /**
+     * Extracts the write sets of the valid transactions of a block, invalid transactions did not change the state
+     *
+     * @param blockEvent BlockEvent: full block delivered by a peer
+     * @return List of writes, in transaction order
+     */
+    public static List<LedgerWrite> fromBlock(BlockEvent blockEvent) {
+        List<LedgerWrite> writes = new ArrayList<>();
+        for (BlockEvent.TransactionEvent transaction : blockEvent.getTransactionEvents()) {
+            if (transaction.isValid()) {
+                writes.addAll(fromTransaction(blockEvent.getBlockNumber(), transaction));
+            }
+        }
+        return writes;
+    }
+
+    /**
+     * Extracts the write set of a transaction, whether it is valid or not
+     *
+     * @param blockNumber long: block holding the transaction
+     * @param transaction TransactionEnvelopeInfo: transaction of a delivered or queried block
+     * @return List of writes
+     */
+    public static List<LedgerWrite> fromTransaction(long blockNumber, BlockInfo.TransactionEnvelopeInfo transaction) {
+        List<LedgerWrite> writes = new ArrayList<>();
+        for (BlockInfo.TransactionEnvelopeInfo.TransactionActionInfo action : transaction.getTransactionActionInfos()) {
+            TxReadWriteSetInfo rwSet = action.getTxReadWriteSet();
+            if (rwSet == null) {
+                continue;
+            }
+            for (TxReadWriteSetInfo.NsRwsetInfo nsRwSet : rwSet.getNsRwsetInfos()) {
+                try {
+                    KvRwset.KVRWSet kvRwSet = nsRwSet.getRwset();
+                    for (KvRwset.KVWrite write : kvRwSet.getWritesList()) {
+                        writes.add(new LedgerWrite(blockNumber, transaction.getTransactionID(),
+                                nsRwSet.getNamespace(), write.getKey(), write.getValue().toByteArray(),
+                                write.getIsDelete()));
+                    }
+                } catch (InvalidProtocolBufferException e) {
+                    log.warn("Unable to read write set of transaction " + transaction.getTransactionID());
+                }
+            }
+        }
+        return writes;
+    }
+
+    public long getBlockNumber() {
+        return blockNumber;
+    }
+
+    public String getTxId() {
+        return txId;
+    }
+
+    public String getNamespace() {
+        return namespace;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public byte[] getValue() {
+        return value;
+    }
+
+    public boolean isDelete() {
+        return delete;
+    }
+}
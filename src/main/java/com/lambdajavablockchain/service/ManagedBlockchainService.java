@@ -1,14 +1,22 @@
 package com.lambdajavablockchain.service;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.lambdajavablockchain.SecretsManagerUtil;
 import com.lambdajavablockchain.exception.AppException;
+import com.lambdajavablockchain.exception.CircuitOpenException;
+import com.lambdajavablockchain.exception.IdempotencyConflictException;
 import com.lambdajavablockchain.exception.ManagedBlockchainServiceException;
+import com.lambdajavablockchain.exception.PipelineFullException;
 import com.lambdajavablockchain.exception.EnrollmentNotFoundException;
 import com.lambdajavablockchain.model.*;
+import com.lambdajavablockchain.store.CredentialStore;
+import com.lambdajavablockchain.store.CredentialStores;
 import org.hyperledger.fabric.sdk.*;
 import org.hyperledger.fabric.sdk.exception.CryptoException;
 import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
 import org.hyperledger.fabric.sdk.exception.ProposalException;
+import org.hyperledger.fabric.sdk.exception.TransactionEventException;
 import org.hyperledger.fabric.sdk.exception.TransactionException;
 import org.hyperledger.fabric.sdk.security.CryptoSuite;
 import org.hyperledger.fabric_ca.sdk.HFCAClient;
@@ -22,29 +30,115 @@ import org.springframework.stereotype.Component;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.net.MalformedURLException;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Managed Blockchain service that interacts with the Fabric SDK to enroll admin, enroll user & query/invoke chaincode
  *
+ * The service is safe to use from concurrent requests: the client and channel are created once, and the Fabric
+ * identity of each request is passed on the proposal request instead of being set on the shared HFClient.
+ *
  */
 @Component
 public class ManagedBlockchainService {
 
-    private HFCAClient caClient;
-    private HFClient client;
-    private Channel channel;
-    private String ambTlsCertAsString;
+    /**
+     * Receives the pages of a paginated query as they arrive
+     */
+    public interface PageConsumer {
+        /**
+         * @param page QueryPage: records of the page and bookmark of the next page
+         * @return boolean: false to stop before the next page is queried
+         */
+        boolean accept(QueryPage page) throws IOException;
+    }
+
+    private static final ObjectMapper PAGE_MAPPER = new ObjectMapper();
+
+    private volatile HFCAClient caClient;
+    private volatile HFClient client;
+    private volatile Channel channel;
+    private volatile String ambTlsCertAsString;
+    private final CredentialStore credentialStore;
+    private final PeerPool peerPool = new PeerPool(AMBConfig.PEER_HEIGHT_LAG_TOLERANCE,
+            AMBConfig.PEER_HEIGHT_REFRESH_MS);
+    private final HedgedQueryExecutor queryExecutor = new HedgedQueryExecutor(peerPool,
+            AMBConfig.QUERY_HEDGING_ENABLED, AMBConfig.QUERY_HEDGE_PERCENTILE, AMBConfig.QUERY_HEDGE_MIN_DELAY_MS);
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker(AMBConfig.CIRCUIT_FAILURE_THRESHOLD,
+            AMBConfig.CIRCUIT_OPEN_MS);
+    private final ScheduledExecutorService channelRebuilder = Executors.newSingleThreadScheduledExecutor(
+            new NamedThreadFactory("channel-rebuild"));
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    private final EnrollmentCache enrollmentCache = new EnrollmentCache(AMBConfig.ENROLLMENT_CACHE_TTL_SECONDS,
+            AMBConfig.ENROLLMENT_CACHE_MAX_SIZE);
+    private final LatencyMetrics latencyMetrics = LatencyMetrics.getInstance();
+    private final BlockEventRouter blockEventRouter = new BlockEventRouter(peerPool);
+    private final QueryResultCache queryCache = new QueryResultCache(blockEventRouter, AMBConfig.QUERY_CACHE_ENABLED,
+            AMBConfig.QUERY_CACHE_MAX_ENTRIES, AMBConfig.QUERY_CACHE_INVALIDATION,
+            AMBConfig.QUERY_CACHE_POINT_READ_FUNCTIONS, (int) AMBConfig.PEER_HEIGHT_LAG_TOLERANCE + 1);
+    private final SingleFlight<byte[]> queryFlights = new SingleFlight<>(AMBConfig.QUERY_COALESCING_ENABLED);
+    private final TransactionTracker transactionTracker = new TransactionTracker(AMBConfig.TRANSACTION_TRACKER_MAX_SIZE);
+    private final ScheduledExecutorService commitTimeouts = Executors.newSingleThreadScheduledExecutor(
+            new NamedThreadFactory("commit-timeout"));
+    private final WritePipeline writePipeline = new WritePipeline(AMBConfig.INVOKE_PIPELINE_WINDOW,
+            AMBConfig.INVOKE_PIPELINE_WAIT_MS, AMBConfig.COMMIT_WAIT_MAX_TIMEOUT_MS,
+            Executors.newFixedThreadPool(AMBConfig.INVOKE_CONCURRENCY, new NamedThreadFactory("endorse")),
+            Executors.newFixedThreadPool(AMBConfig.INVOKE_SUBMIT_CONCURRENCY, new NamedThreadFactory("order")),
+            commitTimeouts);
+    private final ScheduledExecutorService invokeRetries = Executors.newScheduledThreadPool(2,
+            new NamedThreadFactory("invoke-retry"));
+    private final KeySerializer keySerializer = new KeySerializer(AMBConfig.INVOKE_KEY_SERIALIZATION,
+            AMBConfig.INVOKE_KEY_STRIPES, AMBConfig.INVOKE_KEY_WAIT_MS, transactionTracker::outcome,
+            Executors.newCachedThreadPool(new NamedThreadFactory("serialized-invoke")), commitTimeouts);
+    private final CarView carView = new CarView(blockEventRouter, AMBConfig.CAR_VIEW_ENABLED, AMBConfig.CAR_VIEW_CHAINCODE,
+            (int) AMBConfig.PEER_HEIGHT_LAG_TOLERANCE + 1);
+    private final KeyHistoryCache historyCache = new KeyHistoryCache(blockEventRouter,
+            AMBConfig.CAR_HISTORY_CACHE_ENABLED, AMBConfig.CAR_HISTORY_CHAINCODE, AMBConfig.CAR_HISTORY_CACHE_MAX_KEYS,
+            (int) AMBConfig.PEER_HEIGHT_LAG_TOLERANCE + 1);
+    private final BlockArchive blockArchive = new BlockArchive(blockEventRouter, AMBConfig.BLOCK_ARCHIVE_ENABLED,
+            Paths.get(AMBConfig.BLOCK_ARCHIVE_DIR), AMBConfig.BLOCK_ARCHIVE_MAX_BYTES, AMBConfig.BLOCK_ARCHIVE_START_BLOCK);
+    private final ChaincodeEventHub eventHub = new ChaincodeEventHub(blockEventRouter, AMBConfig.EVENTS_ENABLED,
+            AMBConfig.EVENTS_BUFFER_SIZE, AMBConfig.EVENTS_SUBSCRIBER_BUFFER_SIZE, AMBConfig.EVENTS_MAX_SUBSCRIBERS,
+            Executors.newCachedThreadPool(new NamedThreadFactory("event-delivery")), commitTimeouts);
+    private final IdempotencyStore idempotencyStore = new IdempotencyStore(AMBConfig.IDEMPOTENCY_TTL_SECONDS,
+            AMBConfig.IDEMPOTENCY_MAX_KEYS);
+    private final ExecutorService batchExecutor = Executors.newFixedThreadPool(AMBConfig.QUERY_BATCH_CONCURRENCY,
+            new NamedThreadFactory("batch-query"));
 
     private static final Logger log = LoggerFactory.getLogger(ManagedBlockchainService.class);
 
-    public ManagedBlockchainService() {}
+    public ManagedBlockchainService() {
+        this(CredentialStores.fromConfig());
+    }
+
+    public ManagedBlockchainService(CredentialStore credentialStore) {
+        this.credentialStore = credentialStore;
+        log.info("Using " + credentialStore.getName() + " for Fabric credentials");
+    }
 
     public void setupClient() throws AppException, ManagedBlockchainServiceException {
         if(this.caClient != null && this.client != null) {
             return;
         }
+        synchronized (this) {
+            if (this.caClient == null || this.client == null) {
+                createClients();
+            }
+        }
+    }
+
+    private void createClients() throws AppException, ManagedBlockchainServiceException {
+        long start = LatencyMetrics.start();
         try {
             log.info("Setting up CA Client and Client");
             // Set CA details
@@ -64,9 +158,57 @@ public class ManagedBlockchainService {
         } catch (IOException e) {
             log.error("Could not find Managed Blockchain TLS certificate - " + e.getMessage());
             throw new AppException("Managed Blockchain TLS certificate not found", e);
+        } finally {
+            latencyMetrics.record(LatencyMetrics.SETUP_CLIENT, start);
         }
     }
 
+    /**
+     * Prepare the service before the first request: the HF clients are created while the Lambda user enrollment
+     * is loaded in parallel, then the channel is initialized with that user.
+     *
+     * @return Map of stage name to duration in milliseconds
+     */
+    public Map<String, Long> prime() throws AppException, ManagedBlockchainServiceException, EnrollmentNotFoundException {
+        Map<String, Long> timings = new ConcurrentHashMap<>();
+        long start = System.nanoTime();
+
+        CompletableFuture<FabricUser> userFuture = CompletableFuture.supplyAsync(() -> {
+            long loadStart = System.nanoTime();
+            try {
+                return enrollmentCache.get(AMBConfig.LAMBDAUSER, AMBConfig.ORG1, this::loadUser);
+            } catch (EnrollmentNotFoundException e) {
+                throw new CompletionException(e);
+            } finally {
+                timings.put("loadUser", elapsedMillis(loadStart));
+            }
+        });
+
+        long setupStart = System.nanoTime();
+        setupClient();
+        timings.put("setupClient", elapsedMillis(setupStart));
+
+        FabricUser user;
+        try {
+            user = userFuture.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof EnrollmentNotFoundException) {
+                throw (EnrollmentNotFoundException) e.getCause();
+            }
+            throw e;
+        }
+
+        long channelStart = System.nanoTime();
+        initChannel(user);
+        timings.put("initChannel", elapsedMillis(channelStart));
+        timings.put("total", elapsedMillis(start));
+        return timings;
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
     /**
      * Function to enroll admin
      *
@@ -78,14 +220,11 @@ public class ManagedBlockchainService {
         }
 
         try {
-            // Retrieve admin User Context
+            // Retrieve admin User Context, it is passed as registrar to the CA client
             FabricUser fabricUser = getAdmin(caClient);
-
-            // Set client to act on behalf of adminUser
-            client.setUserContext(fabricUser);
             log.info("Using admin user context");
             return fabricUser;
-        } catch (InvalidArgumentException | org.hyperledger.fabric_ca.sdk.exception.InvalidArgumentException
+        } catch (org.hyperledger.fabric_ca.sdk.exception.InvalidArgumentException
                 | EnrollmentException e) {
             log.error("Error enrolling Admin user - " + e.getMessage());
             e.printStackTrace();
@@ -94,16 +233,16 @@ public class ManagedBlockchainService {
     }
 
     /**
-     * Set User context by using already enrolled user
+     * Get the user context of an already enrolled user. The returned user is passed to
+     * queryChaincode()/invokeChaincode() to act on behalf of userId for a single request.
      *
      * @param userId String: userId
+     * @return FabricUser
      */
-    public void setUser(String userId) throws Exception {
-        // Check if user is has enrollment credentials on AWS Secrets Manager
-        Enrollment enrollment = SecretsManagerUtil.getFabricEnrollment(userId, AMBConfig.ORG1);
-
-        // create Fabric user context
-        FabricUser fabricUser = new FabricUser(userId, AMBConfig.ORG1, AMBConfig.ORG1_MSP, enrollment);
+    public FabricUser getUserContext(String userId) throws EnrollmentNotFoundException, ManagedBlockchainServiceException {
+        // Retrieve user context from the enrollment cache, credentials are only read
+        // from the credential store on a cache miss
+        FabricUser fabricUser = enrollmentCache.get(userId, AMBConfig.ORG1, this::loadUser);
 
         // check that the client has been properly setup
         if (client == null) {
@@ -111,42 +250,157 @@ public class ManagedBlockchainService {
             throw new ManagedBlockchainServiceException("Client not initialized!");
         }
 
-        // Set client to act on behalf of userId
-        client.setUserContext(fabricUser);
-        log.info("Using " + userId + " user context");
+        log.debug("Using " + userId + " user context");
+        return fabricUser;
     }
 
     /**
      * Enroll a Fabric user, if user is already enrolled it retrieves user context from
-     * AWS Secrets Manager
+     * the credential store
      *
      * @param userId   String: userId
      * @param password String: password
      */
     public void enrollUser(String userId, String password) throws Exception {
         try {
-            // Check if user has enrollment credentials on AWS Secrets Manager
-            Enrollment enrollment = SecretsManagerUtil.getFabricEnrollment(userId, AMBConfig.ORG1);
+            // Check if user has enrollment credentials in the credential store
+            enrollmentCache.get(userId, AMBConfig.ORG1, this::loadUser);
             log.info("User is already enrolled!");
         } catch (EnrollmentNotFoundException e) {
             // User is enrolling for the first time
             log.info("Enrollment not found for user, enrolling user ...");
-            // Enroll admin and set admin context, we will need admin context to enroll a new user user
+            // Retrieve admin context, the admin is the registrar of the new user
             FabricUser adminUser = enrollAdmin();
             // Next, enroll user
             enrollUserToCA(caClient, adminUser, userId, password);
         }
     }
 
+    /**
+     * Build user context using enrollment credentials from the credential store
+     *
+     * @param userId String: userId
+     * @param orgName String: organisation name
+     * @return FabricUser
+     */
+    private FabricUser loadUser(String userId, String orgName) throws EnrollmentNotFoundException {
+        long start = LatencyMetrics.start();
+        try {
+            FabricEnrollment enrollment = credentialStore.getEnrollment(userId, orgName);
+            return new FabricUser(userId, orgName, AMBConfig.ORG1_MSP, enrollment);
+        } finally {
+            latencyMetrics.record(LatencyMetrics.LOAD_USER, start);
+        }
+    }
+
+    public EnrollmentCache getEnrollmentCache() {
+        return enrollmentCache;
+    }
+
     /**
      * Start channel initialization
+     * The Fabric SDK needs a user context on the client to create and initialize the channel, {@code user}
+     * is set on the client once, before the channel is created. Requests never change it afterwards.
+     *
+     * @param user User: identity used to initialize the channel
+     */
+    public void initChannel(User user) throws AppException, CircuitOpenException {
+        if (isChannelReady()) {
+            return;
+        }
+        if (rebuilding.get()) {
+            // do not wait for the background rebuild, fail fast instead
+            throw new CircuitOpenException("Blockchain network unavailable, channel is being rebuilt");
+        }
+        synchronized (this) {
+            if (isChannelReady()) {
+                return;
+            }
+            try {
+                if (client.getUserContext() == null) {
+                    client.setUserContext(user);
+                }
+            } catch (InvalidArgumentException e) {
+                log.error("Invalid user context for channel initialization - " + e.getMessage());
+                throw new AppException("Invalid user context for channel initialization", e);
+            }
+            // Initialize Channel
+            log.info("Initializing channel ...");
+            long start = LatencyMetrics.start();
+            try {
+                shutdownChannel();
+                this.channel = initializeChannel(client);
+            } finally {
+                latencyMetrics.record(LatencyMetrics.INIT_CHANNEL, start);
+            }
+            log.info("Channel initialized!");
+        }
+    }
+
+    private boolean isChannelReady() {
+        Channel current = this.channel;
+        return current != null && current.isInitialized() && !current.isShutdown();
+    }
+
+    private synchronized void shutdownChannel() {
+        // the client only accepts a new channel with the same name once the old one is shut down
+        if (this.channel != null && !this.channel.isShutdown()) {
+            this.channel.shutdown(true);
+        }
+    }
+
+    /**
+     * Fails fast while the circuit breaker is open
+     */
+    private void checkCircuit() throws CircuitOpenException {
+        if (!circuitBreaker.allowRequest()) {
+            throw new CircuitOpenException("Blockchain network unavailable, failing fast until the channel is rebuilt");
+        }
+    }
+
+    /**
+     * Records a failed call to a peer or orderer, rebuilds the channel in the background once the circuit opens
      *
+     * @param e Throwable: the failure
      */
-    public void initChannel() throws AppException {
-        // Initialize Channel
-        log.info("Initializing channel ...");
-        this.channel = initializeChannel(client);
-        log.info("Channel initialized!");
+    private void recordNetworkFailure(Throwable e) {
+        log.warn("Blockchain network call failed - " + e.getMessage());
+        if (circuitBreaker.recordFailure()) {
+            log.error("Circuit breaker opened after repeated failures, rebuilding channel in the background");
+            scheduleChannelRebuild(0);
+        }
+    }
+
+    private void scheduleChannelRebuild(long delayMillis) {
+        if (rebuilding.compareAndSet(false, true)) {
+            channelRebuilder.schedule(this::rebuildChannel, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Replaces the channel with a new one, connections to the peers and orderer are re-established.
+     * Retried after the circuit open duration until it succeeds.
+     */
+    private void rebuildChannel() {
+        boolean rebuilt = false;
+        try {
+            synchronized (this) {
+                log.info("Rebuilding channel ...");
+                shutdownChannel();
+                this.channel = initializeChannel(client);
+            }
+            rebuilt = true;
+            // let a trial request through right away
+            circuitBreaker.halfOpen();
+            log.info("Channel rebuilt!");
+        } catch (AppException | RuntimeException e) {
+            log.error("Unable to rebuild channel - " + e.getMessage());
+        } finally {
+            rebuilding.set(false);
+        }
+        if (!rebuilt) {
+            scheduleChannelRebuild(AMBConfig.CIRCUIT_OPEN_MS);
+        }
     }
 
     public Channel getChannel() {
@@ -157,6 +411,199 @@ public class ManagedBlockchainService {
         return client;
     }
 
+    public PeerPool getPeerPool() {
+        return peerPool;
+    }
+
+    public HedgedQueryExecutor getQueryExecutor() {
+        return queryExecutor;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public BlockEventRouter getBlockEventRouter() {
+        return blockEventRouter;
+    }
+
+    public QueryResultCache getQueryCache() {
+        return queryCache;
+    }
+
+    public SingleFlight<byte[]> getQueryFlights() {
+        return queryFlights;
+    }
+
+    public TransactionTracker getTransactionTracker() {
+        return transactionTracker;
+    }
+
+    public WritePipeline getWritePipeline() {
+        return writePipeline;
+    }
+
+    public KeySerializer getKeySerializer() {
+        return keySerializer;
+    }
+
+    public IdempotencyStore getIdempotencyStore() {
+        return idempotencyStore;
+    }
+
+    public CarView getCarView() {
+        return carView;
+    }
+
+    public KeyHistoryCache getHistoryCache() {
+        return historyCache;
+    }
+
+    public ChaincodeEventHub getEventHub() {
+        return eventHub;
+    }
+
+    public LatencyMetrics getLatencyMetrics() {
+        return latencyMetrics;
+    }
+
+    public BlockArchive getBlockArchive() {
+        return blockArchive;
+    }
+
+    /**
+     * Invoke chaincode without holding the calling thread: the proposal is endorsed and sent to the orderer by the
+     * write pipeline, the returned future completes once the transaction is committed or the timeout expires.
+     * No thread is held while the commit is pending.
+     *
+     * @param hfClient       HFClient: HLF client instance
+     * @param channel        Channel: Channel instance
+     * @param user           User: identity the transaction is signed by
+     * @param idempotencyKey String: key of the request sent by the client, null if none
+     * @param chainCodeName  String: chaincode to invoke
+     * @param functionName   String: function to invoke
+     * @param arguments      String[]: list of arguments for chaincode invocation
+     * @param timeoutMillis  long: maximum time to wait for the commit, the PENDING status is returned after it
+     * @return CompletableFuture completed with the commit status, or exceptionally if the invoke fails before the
+     * transaction reaches the orderer
+     */
+    public CompletableFuture<TransactionStatus> invokeChaincodeAndWait(HFClient hfClient, Channel channel, User user,
+                                                                       String idempotencyKey, String chainCodeName,
+                                                                       String functionName, String[] arguments,
+                                                                       long timeoutMillis) {
+        try {
+            return invokeChaincodeAsync(hfClient, channel, user, idempotencyKey, chainCodeName, functionName, arguments)
+                    .thenCompose(txId -> awaitCommit(txId, timeoutMillis));
+        } catch (ManagedBlockchainServiceException | AppException e) {
+            CompletableFuture<TransactionStatus> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    /**
+     * Waits for the commit of a transaction submitted by this instance
+     *
+     * @param txId          String: transaction id returned by invokeChaincode()
+     * @param timeoutMillis long: maximum time to wait, the current status is returned after it
+     * @return CompletableFuture completed with the commit status, the status of the last retry if the transaction
+     * was retried after a read conflict
+     */
+    public CompletableFuture<TransactionStatus> awaitCommit(String txId, long timeoutMillis) {
+        CompletableFuture<TransactionStatus> outcome = transactionTracker.outcome(txId);
+        if (outcome == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (outcome.isDone()) {
+            return outcome;
+        }
+        CompletableFuture<TransactionStatus> result = new CompletableFuture<>();
+        ScheduledFuture<?> timeout = commitTimeouts.schedule(
+                () -> result.complete(transactionTracker.latest(txId)), timeoutMillis, TimeUnit.MILLISECONDS);
+        outcome.thenAccept(status -> {
+            timeout.cancel(false);
+            result.complete(status);
+        });
+        return result;
+    }
+
+    /**
+     * Commit status of a transaction. Transactions submitted by this instance are answered by the tracker, others
+     * (e.g. submitted by another Lambda instance) are looked up on the ledger of a peer.
+     *
+     * @param channel Channel: Channel instance
+     * @param user    User: identity the ledger query is sent on behalf of
+     * @param txId    String: transaction id
+     * @return TransactionStatus, null if the transaction is unknown
+     */
+    public TransactionStatus getTransactionStatus(Channel channel, User user, String txId)
+            throws ManagedBlockchainServiceException, InvalidArgumentException, ProposalException {
+        TransactionStatus tracked = transactionTracker.get(txId);
+        if (tracked != null) {
+            return tracked;
+        }
+        try {
+            ArchivedTransaction archived = blockArchive.getTransaction(txId);
+            if (archived != null) {
+                return TransactionTracker.fromValidationCode(txId, archived.getValidationCode(), archived.getBlockNumber());
+            }
+        } catch (IOException e) {
+            log.warn("Unable to read transaction " + txId + " from the block archive - " + e.getMessage());
+        }
+        if (channel == null) {
+            log.error("Channel not initialized. Run ManagedBlockchainService.initChannel() first");
+            throw new ManagedBlockchainServiceException("Channel not initialized!");
+        }
+
+        checkCircuit();
+        Peer peer;
+        try {
+            peer = peerPool.selectForQuery();
+        } catch (RuntimeException e) {
+            circuitBreaker.release();
+            throw e;
+        }
+        long start = peerPool.start(peer);
+        boolean success = false;
+        try {
+            TransactionInfo info = channel.queryTransactionByID(peer, txId, user);
+            BlockInfo block = channel.queryBlockByTransactionID(peer, txId, user);
+            success = true;
+            circuitBreaker.recordSuccess();
+            return TransactionTracker.fromValidationCode(txId, info.getValidationCode().getNumber(),
+                    block.getBlockNumber());
+        } catch (ProposalException e) {
+            if (isUnknownTransaction(e)) {
+                success = true;
+                circuitBreaker.recordSuccess();
+                log.debug("Transaction " + txId + " not found on peer " + peer.getName() + " - " + e.getMessage());
+                return null;
+            }
+            recordNetworkFailure(e);
+            throw e;
+        } catch (InvalidArgumentException | RuntimeException e) {
+            circuitBreaker.release();
+            throw e;
+        } finally {
+            peerPool.complete(peer, start, success);
+        }
+    }
+
+    /**
+     * True if the peer answered that it has no transaction with this id, false if the query failed, e.g. the peer
+     * could not be reached or timed out
+     */
+    private static boolean isUnknownTransaction(ProposalException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            // message of the peer ledger, returned through the qscc error response
+            String message = cause.getMessage();
+            if (message != null && message.toLowerCase(Locale.ROOT).contains("no such transaction id")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Initialize Fabric channel
      *
@@ -164,9 +611,6 @@ public class ManagedBlockchainService {
      * @return Channel
      */
     private Channel initializeChannel(HFClient client) throws AppException {
-        if (this.channel != null && this.channel.isInitialized()) {
-            return channel;
-        }
         try {
             // Read Managed Blockchain TLS certificate from resources folder
             Properties properties = new Properties();
@@ -179,17 +623,33 @@ public class ManagedBlockchainService {
             properties.setProperty("sslProvider", "openSSL");
             properties.setProperty("negotiationType", "TLS");
 
-            // Configure Peer
-            Peer peer = client.newPeer(AMBConfig.ORG1_PEER_0, AMBConfig.ORG1_PEER_0_URL, properties);
+            // gRPC keepalive, detects broken connections on long lived warm containers
+            properties.put("grpc.NettyChannelBuilderOption.keepAliveTime",
+                    new Object[]{AMBConfig.GRPC_KEEPALIVE_TIME_MS, TimeUnit.MILLISECONDS});
+            properties.put("grpc.NettyChannelBuilderOption.keepAliveTimeout",
+                    new Object[]{AMBConfig.GRPC_KEEPALIVE_TIMEOUT_MS, TimeUnit.MILLISECONDS});
+            properties.put("grpc.NettyChannelBuilderOption.keepAliveWithoutCalls", new Object[]{true});
+
             // Configure Orderer
             Orderer orderer = client.newOrderer(AMBConfig.ORDERER_NAME, AMBConfig.ORDERER_URL, properties);
             // Configure Channel
             Channel channel = client.newChannel(AMBConfig.CHANNEL_NAME);
 
-            channel.addPeer(peer);
+            // Configure Peers
+            for (Map.Entry<String, String> peerConfig : AMBConfig.PEERS.entrySet()) {
+                channel.addPeer(client.newPeer(peerConfig.getKey(), peerConfig.getValue(), properties));
+            }
             channel.addOrderer(orderer);
+            // blocks are routed to the query cache and other consumers, registered before the event service starts
+            blockEventRouter.attach(channel);
             channel.initialize();
+            // results cached through a previous channel may predate blocks committed while it was down, the
+            // delivery gap is only detected with the next block
+            queryCache.invalidateAll();
 
+            peerPool.setPeers(channel.getPeers());
+            peerPool.refreshHeightsIfStale(channel);
+            blockArchive.start(archiveSource(channel));
             return channel;
         } catch (InvalidArgumentException | TransactionException e) {
             e.printStackTrace();
@@ -202,9 +662,26 @@ public class ManagedBlockchainService {
         }
     }
 
+    /**
+     * Reads the blocks missing from the block archive from the best scored peer
+     */
+    private BlockArchive.BlockSource archiveSource(Channel channel) {
+        return new BlockArchive.BlockSource() {
+            @Override
+            public long height() throws Exception {
+                return channel.queryBlockchainInfo(peerPool.selectForQuery()).getHeight();
+            }
+
+            @Override
+            public BlockInfo block(long blockNumber) throws Exception {
+                return channel.queryBlockByNumber(peerPool.selectForQuery(), blockNumber);
+            }
+        };
+    }
+
     /**
      * Register and enroll user with provided {@code userId/userPassword}
-     * Upon successful enrollment, user credentials will be saved on AWS Secrets Manager
+     * Upon successful enrollment, user credentials will be saved in the credential store
      *
      * @param caClient  HFCAClient: The fabric-ca client.
      * @param registrar FabricUser: The registrar to be used.
@@ -223,10 +700,10 @@ public class ManagedBlockchainService {
             Enrollment userEnrollment = caClient.enroll(userId, enrollmentSecret);
             log.info("Userid:" + userId + " successfully enrolled");
 
-            // Save credentials on AWS Secrets Manager
-            SecretsManagerUtil.storeEnrollmentCredentials(userId, AMBConfig.ORG1, userEnrollment);
+            // Save credentials in the credential store
+            credentialStore.storeEnrollment(userId, AMBConfig.ORG1, userEnrollment);
 
-            log.info("Userid:" + userId + " credentials saved on Secrets Manager");
+            log.info("Userid:" + userId + " credentials saved on " + credentialStore.getName());
             return userEnrollment;
         } catch (org.hyperledger.fabric_ca.sdk.exception.InvalidArgumentException | RegistrationException | EnrollmentException e) {
             log.error("Error enrolling user to CA - " + e.getMessage());
@@ -237,25 +714,25 @@ public class ManagedBlockchainService {
 
     /**
      * Enroll admin into Fabric CA using {@code admin/adminpwd} credentials.
-     * If admin's certificates are already present on AWS Secrets Manager, enrollment will be skipped and
-     * Admin user context will be reconstructed using credentials from Secrets Manager.
+     * If admin's certificates are already present in the credential store, enrollment will be skipped and
+     * Admin user context will be reconstructed using stored credentials.
      *
      * @param hfcaClient HFCAClient: The Fabric CA client
      * @return FabricUser instance
      */
     private FabricUser getAdmin(HFCAClient hfcaClient) throws EnrollmentException, org.hyperledger.fabric_ca.sdk.exception.InvalidArgumentException {
         try {
-            // Try to build enrollment using AWS Secrets Manager credentials
-            FabricEnrollment fabricEnrollment = SecretsManagerUtil.getFabricEnrollment(AMBConfig.ADMINUSER, AMBConfig.ORG1);
+            // Try to build enrollment using credentials from the credential store
+            FabricEnrollment fabricEnrollment = credentialStore.getEnrollment(AMBConfig.ADMINUSER, AMBConfig.ORG1);
 
             // Create Admin user context with existing credentials
             FabricUser adminUserContext = new FabricUser(AMBConfig.ADMINUSER, AMBConfig.ORG1,
                     AMBConfig.ORG1_MSP, fabricEnrollment);
-            log.info("Admin user context reconstructed from Secrets Manager");
+            log.info("Admin user context reconstructed from " + credentialStore.getName());
             return adminUserContext;
         } catch (EnrollmentNotFoundException e) {
             // If admin has not yet been enrolled, enroll admin once and save credentials
-            log.info("No secret found in Secrets Manager, enrolling admin");
+            log.info("No credentials found in " + credentialStore.getName() + ", enrolling admin");
 
             // Enroll Admin first
             Enrollment adminEnrollment = hfcaClient.enroll(AMBConfig.ADMINUSER, AMBConfig.ADMINPWD);
@@ -263,10 +740,10 @@ public class ManagedBlockchainService {
                     AMBConfig.ORG1_MSP, adminEnrollment);
             log.info("Admin successfully enrolled");
 
-            // Save credentials on AWS Secrets Manager
-            SecretsManagerUtil.storeEnrollmentCredentials(AMBConfig.ADMINUSER, AMBConfig.ORG1, adminEnrollment);
+            // Save credentials in the credential store
+            credentialStore.storeEnrollment(AMBConfig.ADMINUSER, AMBConfig.ORG1, adminEnrollment);
 
-            log.info("Admin credentials saved on Secrets Manager");
+            log.info("Admin credentials saved on " + credentialStore.getName());
             return adminUserContext;
         }
     }
@@ -315,37 +792,241 @@ public class ManagedBlockchainService {
      *
      * @param hfClient      HFClient: Fabric Client instance
      * @param channel       Channel: Channel instance
+     * @param user          User: identity the query is sent on behalf of
      * @param chaincodeName String: chaincode to query
      * @param functionName  String: function to query
-     * @param args          String: argument for the query function
+     * @param args          String[]: arguments for the query function
      * @return String: query response
      */
-    public String queryChaincode(HFClient hfClient, Channel channel, String chaincodeName, String functionName,
-                                 String args) throws ManagedBlockchainServiceException, ProposalException, InvalidArgumentException {
+    public String queryChaincode(HFClient hfClient, Channel channel, User user, String chaincodeName,
+                                 String functionName, String... args) throws ManagedBlockchainServiceException, ProposalException, InvalidArgumentException {
+        // Retrieve the query response
+        String result = new String(queryChaincodePayload(hfClient, channel, user, chaincodeName, functionName, args));
+        log.debug("Query result: " + result);
+        return result;
+    }
+
+    /**
+     * Query chaincode and return the raw response payload, served from the query result cache when possible.
+     * Identical queries in flight at the same time are coalesced into a single peer call.
+     *
+     * @param hfClient      HFClient: Fabric Client instance
+     * @param channel       Channel: Channel instance
+     * @param user          User: identity the query is sent on behalf of
+     * @param chaincodeName String: chaincode to query
+     * @param functionName  String: function to query
+     * @param args          String[]: arguments for the query function
+     * @return byte[]: query response payload
+     */
+    public byte[] queryChaincodePayload(HFClient hfClient, Channel channel, User user, String chaincodeName,
+                                        String functionName, String... args) throws ManagedBlockchainServiceException, ProposalException, InvalidArgumentException {
 
         if (channel == null || hfClient == null) {
             log.error("Channel/Client not initialized. Run ManagedBlockchainService.initChannel() first");
             throw new ManagedBlockchainServiceException("Channel/Client not initialized!");
         }
+
+        String key = QueryResultCache.key(user, chaincodeName, functionName, args);
+        byte[] cached = queryCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        // Identical concurrent queries share a single proposal and peer round trip
+        try {
+            return queryFlights.execute(key,
+                    () -> sendQuery(hfClient, channel, user, key, chaincodeName, functionName, args));
+        } catch (ManagedBlockchainServiceException | ProposalException | InvalidArgumentException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ManagedBlockchainServiceException("Query failed - " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Send a list of queries concurrently, at most QUERY_BATCH_CONCURRENCY queries of all batches are in flight
+     * at a time. Each query completes on its own, a failed query does not fail the others.
+     *
+     * @param hfClient HFClient: Fabric Client instance
+     * @param channel  Channel: Channel instance
+     * @param user     User: identity the queries are sent on behalf of
+     * @param queries  List of queries
+     * @return List of query response payloads, in the order of the queries
+     */
+    public List<CompletableFuture<byte[]>> queryChaincodeBatch(HFClient hfClient, Channel channel, User user,
+                                                               List<QueryRequest> queries) {
+        List<CompletableFuture<byte[]>> futures = new ArrayList<>(queries.size());
+        for (QueryRequest query : queries) {
+            String[] args = query.getArgList() == null ? new String[0] : query.getArgList().toArray(new String[0]);
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return queryChaincodePayload(hfClient, channel, user, query.getChaincodeName(),
+                            query.getFunctionName(), args);
+                } catch (ManagedBlockchainServiceException | ProposalException | InvalidArgumentException e) {
+                    throw new CompletionException(e);
+                }
+            }, batchExecutor));
+        }
+        return futures;
+    }
+
+    /**
+     * Query a paginated range or rich query page by page, each page is handed to {@code consumer} before the next
+     * one is queried so that only one page is held in memory.
+     * A paginated function receives {@code pageSize} and the bookmark as its last two arguments and returns
+     * {@code {"records": [...], "bookmark": "..."}}, an empty bookmark ends the query. A function returning a plain
+     * JSON array is read as a single page.
+     *
+     * @param hfClient      HFClient: Fabric Client instance
+     * @param channel       Channel: Channel instance
+     * @param user          User: identity the queries are sent on behalf of
+     * @param chaincodeName String: chaincode to query
+     * @param functionName  String: paginated function to query
+     * @param args          List of arguments, before the page size and bookmark
+     * @param pageSize      int: number of records per page
+     * @param bookmark      String: bookmark of the first page, empty to start from the beginning
+     * @param paginated     boolean: false if the function takes no page size/bookmark arguments
+     * @param consumer      PageConsumer: receives the pages
+     * @return String: bookmark of the page after the last consumed one, empty if all pages were consumed
+     */
+    public String queryChaincodePages(HFClient hfClient, Channel channel, User user, String chaincodeName,
+                                      String functionName, List<String> args, int pageSize, String bookmark,
+                                      boolean paginated, PageConsumer consumer)
+            throws ManagedBlockchainServiceException, ProposalException, InvalidArgumentException, AppException, IOException {
+        String current = bookmark == null ? "" : bookmark;
+        while (true) {
+            List<String> pageArgs = new ArrayList<>(args);
+            if (paginated) {
+                pageArgs.add(String.valueOf(pageSize));
+                pageArgs.add(current);
+            }
+            byte[] payload = queryChaincodePayload(hfClient, channel, user, chaincodeName, functionName,
+                    pageArgs.toArray(new String[0]));
+            QueryPage page = readPage(payload);
+            // a chaincode returning the same bookmark without records would loop forever
+            if (page.hasMore() && page.getBookmark().equals(current) && page.getRecords().size() == 0) {
+                page.setBookmark("");
+            }
+            log.debug("Query page " + page);
+
+            boolean more = consumer.accept(page);
+            if (!page.hasMore()) {
+                return "";
+            }
+            if (!more) {
+                return page.getBookmark();
+            }
+            current = page.getBookmark();
+        }
+    }
+
+    /**
+     * Loads the car view on first use and after a delivery gap, the channel must be initialized so that the blocks
+     * committed during and after the load are delivered to the view
+     *
+     * @param user User: identity the load query is sent on behalf of
+     */
+    public void loadCarView(User user) throws ManagedBlockchainServiceException, ProposalException,
+            InvalidArgumentException, AppException, IOException {
+        if (!carView.isEnabled() || carView.isLoaded()) {
+            return;
+        }
+        synchronized (carView) {
+            if (carView.isLoaded()) {
+                return;
+            }
+            long start = System.currentTimeMillis();
+            carView.startLoad();
+            boolean success = false;
+            try {
+                queryChaincodePages(this.client, this.channel, user, carView.getChaincodeName(),
+                        AMBConfig.CAR_VIEW_LOAD_FUNCTION, Collections.emptyList(), AMBConfig.QUERY_PAGE_SIZE_MAX, "",
+                        AMBConfig.CAR_VIEW_LOAD_PAGINATED, page -> {
+                            carView.load(page.getRecords());
+                            return true;
+                        });
+                success = true;
+            } finally {
+                carView.finishLoad(success);
+            }
+            log.info("Car view loaded in " + (System.currentTimeMillis() - start) + "ms");
+        }
+    }
+
+    /**
+     * History of a car, oldest change first. The history is served from the history cache when possible, committed
+     * changes are never rewritten so a cached history only grows with the blocks delivered after it was queried.
+     *
+     * @param hfClient HFClient: Fabric Client instance
+     * @param channel  Channel: Channel instance
+     * @param user     User: identity the query is sent on behalf of
+     * @param carId    String: car key
+     * @return KeyHistoryCache.History: records and the block they are current to
+     */
+    public KeyHistoryCache.History getCarHistory(HFClient hfClient, Channel channel, User user, String carId)
+            throws ManagedBlockchainServiceException, ProposalException, InvalidArgumentException, AppException {
+        KeyHistoryCache.History cached = historyCache.get(carId);
+        if (cached != null) {
+            return cached;
+        }
+        long generation = historyCache.generation();
+        byte[] payload = queryChaincodePayload(hfClient, channel, user, historyCache.getChaincodeName(),
+                AMBConfig.CAR_HISTORY_FUNCTION, carId);
+        return historyCache.put(carId, generation, KeyHistoryCache.fromChaincode(carId, payload));
+    }
+
+    private static QueryPage readPage(byte[] payload) throws AppException {
+        try {
+            JsonNode node = PAGE_MAPPER.readTree(payload);
+            if (node != null && node.isArray()) {
+                return new QueryPage(node, "");
+            }
+            if (node != null && node.path("records").isArray()) {
+                return new QueryPage(node.get("records"), node.path("bookmark").asText(""));
+            }
+        } catch (IOException e) {
+            throw new AppException("Paginated query returned invalid JSON", e);
+        }
+        throw new AppException("Paginated query must return a JSON array or {\"records\": [...], \"bookmark\": \"...\"}");
+    }
+
+    private byte[] sendQuery(HFClient hfClient, Channel channel, User user, String key, String chaincodeName,
+                             String functionName, String[] args) throws ManagedBlockchainServiceException, ProposalException, InvalidArgumentException {
+        long generation = queryCache.generation();
+
         QueryByChaincodeRequest qpr = hfClient.newQueryProposalRequest();
+        qpr.setUserContext(user);
         // Chaincode Version is omitted, it can be added if required
         ChaincodeID chaincodeID = ChaincodeID.newBuilder().setName(chaincodeName).build();
         qpr.setChaincodeID(chaincodeID);
         qpr.setFcn(functionName);
-        String[] arguments = {args};
-        qpr.setArgs(arguments);
-
-        // Query the chaincode
-        Collection<ProposalResponse> res = channel.queryByChaincode(qpr);
+        qpr.setArgs(args);
 
-        String result = "";
-        // Retrieve the query response
-        for (ProposalResponse pres : res) {
-            result = new String(pres.getChaincodeActionResponsePayload());
-            log.info("Query result: " + result);
+        // Query the chaincode on the best scored peer, hedged to a second peer if it is slow to answer
+        checkCircuit();
+        ProposalResponse pres;
+        long start = LatencyMetrics.start();
+        try {
+            pres = queryExecutor.execute(channel, qpr);
+            circuitBreaker.recordSuccess();
+        } catch (ProposalException e) {
+            recordNetworkFailure(e);
+            throw e;
+        } catch (InvalidArgumentException | RuntimeException e) {
+            // not a network failure, but a trial request must not keep the circuit half open
+            circuitBreaker.release();
+            throw e;
+        } finally {
+            latencyMetrics.record(LatencyMetrics.QUERY, chaincodeName, functionName, start);
         }
+        peerPool.refreshHeightsIfStale(channel);
 
-        return result;
+        byte[] payload = pres.getChaincodeActionResponsePayload();
+        if (pres.getStatus() == ChaincodeResponse.Status.SUCCESS) {
+            queryCache.put(key, generation, peerPool.getHeight(pres.getPeer()), chaincodeName, functionName, args,
+                    payload);
+        }
+        return payload;
     }
 
     /**
@@ -353,12 +1034,92 @@ public class ManagedBlockchainService {
      *
      * @param hfClient      HFClient: HLF client instance
      * @param channel       Channel: Channel instance
+     * @param user          User: identity the transaction is signed by
+     * @param chainCodeName String: chaincode to invoke
+     * @param functionName  String: function to invoke
+     * @param arguments     String[]: list of arguments for chaincode invocation
+     * @return String: id of the transaction sent to the orderer, its commit status is followed by the TransactionTracker
+     */
+    public String invokeChaincode(HFClient hfClient, Channel channel, User user, String chainCodeName,
+                                  String functionName, String[] arguments) throws ManagedBlockchainServiceException, InvalidArgumentException {
+        return sent(invokeChaincodeAsync(hfClient, channel, user, chainCodeName, functionName, arguments));
+    }
+
+    /**
+     * Invoke chaincode at most once per idempotency key: a repeated invoke with the same key returns the transaction
+     * id of the first one without being endorsed again
+     *
+     * @param hfClient       HFClient: HLF client instance
+     * @param channel        Channel: Channel instance
+     * @param user           User: identity the transaction is signed by
+     * @param idempotencyKey String: key of the request sent by the client, null to always invoke
+     * @param chainCodeName  String: chaincode to invoke
+     * @param functionName   String: function to invoke
+     * @param arguments      String[]: list of arguments for chaincode invocation
+     * @return String: id of the transaction sent to the orderer
+     * @throws IdempotencyConflictException if the key was first used with a different invoke
+     */
+    public String invokeChaincode(HFClient hfClient, Channel channel, User user, String idempotencyKey,
+                                  String chainCodeName, String functionName, String[] arguments)
+            throws ManagedBlockchainServiceException, InvalidArgumentException, AppException {
+        return sent(invokeChaincodeAsync(hfClient, channel, user, idempotencyKey, chainCodeName, functionName, arguments));
+    }
+
+    /**
+     * Asynchronous variant of invokeChaincode() with an idempotency key
+     *
+     * @return CompletableFuture completed with the transaction id once it is sent to the orderer
+     */
+    public CompletableFuture<String> invokeChaincodeAsync(HFClient hfClient, Channel channel, User user,
+                                                          String idempotencyKey, String chainCodeName,
+                                                          String functionName, String[] arguments)
+            throws ManagedBlockchainServiceException, AppException {
+        String fingerprint = IdempotencyStore.fingerprint(user.getMspId() + "/" + user.getName(), chainCodeName,
+                functionName, arguments);
+        return idempotencyStore.execute(idempotencyKey, fingerprint,
+                () -> invokeChaincodeAsync(hfClient, channel, user, chainCodeName, functionName, arguments));
+    }
+
+    /**
+     * Waits until the transaction is sent to the orderer
+     *
+     * @return String: transaction id
+     */
+    private String sent(CompletableFuture<String> txId) throws ManagedBlockchainServiceException, InvalidArgumentException {
+        try {
+            return txId.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ManagedBlockchainServiceException) {
+                throw (ManagedBlockchainServiceException) cause;
+            }
+            if (cause instanceof InvalidArgumentException) {
+                throw (InvalidArgumentException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            log.error("Proposal exception " + cause.getMessage());
+            throw new RuntimeException("Proposal exception ", cause);
+        }
+    }
+
+    /**
+     * Invoke chaincode through the write pipeline: the proposal is endorsed while earlier transactions are being
+     * ordered, at most INVOKE_PIPELINE_WINDOW transactions are in flight until their commit
+     *
+     * @param hfClient      HFClient: HLF client instance
+     * @param channel       Channel: Channel instance
+     * @param user          User: identity the transaction is signed by
      * @param chainCodeName String: chaincode to invoke
      * @param functionName  String: function to invoke
      * @param arguments     String[]: list of arguments for chaincode invocation
+     * @return CompletableFuture completed with the transaction id once it is sent to the orderer
+     * @throws PipelineFullException if the window stays full for INVOKE_PIPELINE_WAIT_MS
      */
-    public void invokeChaincode(HFClient hfClient, Channel channel, String chainCodeName, String functionName,
-                                String[] arguments) throws ManagedBlockchainServiceException, InvalidArgumentException {
+    public CompletableFuture<String> invokeChaincodeAsync(HFClient hfClient, Channel channel, User user,
+                                                          String chainCodeName, String functionName,
+                                                          String[] arguments) throws ManagedBlockchainServiceException {
 
         if (channel == null || hfClient == null) {
             log.error("Channel/Client not initialized. Run ManagedBlockchainService.initChannel() first");
@@ -367,45 +1128,168 @@ public class ManagedBlockchainService {
         // Set chaincdoe name, function and arguments
         ChaincodeID chaincodeID = ChaincodeID.newBuilder().setName(chainCodeName).build();
         TransactionProposalRequest invokeRequest = hfClient.newTransactionProposalRequest();
+        try {
+            invokeRequest.setUserContext(user);
+        } catch (InvalidArgumentException e) {
+            throw new ManagedBlockchainServiceException("Invalid user context - " + e.getMessage(), e);
+        }
         invokeRequest.setChaincodeID(chaincodeID);
         invokeRequest.setFcn(functionName);
         invokeRequest.setArgs(arguments);
         invokeRequest.setProposalWaitTime(2000);
 
+        checkCircuit();
+
+        // writes are serialized on the ledger key, the first argument of the chaincode functions writing a key
+        String key = arguments.length > 0 ? chainCodeName + "\u0000" + arguments[0] : null;
+        try {
+            return keySerializer.execute(key, () -> pipelineInvoke(channel, user, invokeRequest, 1));
+        } catch (ManagedBlockchainServiceException | RuntimeException e) {
+            // rejected before the endorsement, the outcome of a trial request is unknown
+            circuitBreaker.release();
+            throw e;
+        }
+    }
+
+    private CompletableFuture<String> pipelineInvoke(Channel channel, User user, TransactionProposalRequest invokeRequest,
+                                                     int attempt) throws PipelineFullException {
+        return writePipeline.execute(() -> endorse(channel, invokeRequest),
+                endorsements -> submit(channel, user, invokeRequest, endorsements, attempt));
+    }
+
+    /**
+     * Send the transaction proposal to the endorsement peers
+     *
+     * @return Collection of successful proposal responses
+     */
+    private Collection<ProposalResponse> endorse(Channel channel, TransactionProposalRequest invokeRequest)
+            throws ProposalException, InvalidArgumentException {
         Collection<ProposalResponse> successful = new LinkedList<>();
         Collection<ProposalResponse> failed = new LinkedList<>();
 
+        // Endorsement peers, only as many as required by the endorsement policy
+        List<Peer> endorsers = peerPool.selectForEndorsement(AMBConfig.ENDORSEMENT_PEER_COUNT);
+        long start = System.nanoTime();
+        endorsers.forEach(peerPool::start);
+
+        // Send transaction proposal to the endorsement peers
+        Collection<ProposalResponse> responses;
         try {
-            // Send transaction proposal to all peers
-            Collection<ProposalResponse> responses = channel.sendTransactionProposal(invokeRequest);
-
-            // Process responses from transaction proposal
-            for (ProposalResponse response : responses) {
-                String stringResponse = new String(response.getChaincodeActionResponsePayload());
-                log.info("Invoke status:" + response.getStatus() + " result:" + stringResponse);
-
-                if (response.getStatus() == ChaincodeResponse.Status.SUCCESS) {
-                    log.info("Received successful transaction proposal response txId:"
-                            + response.getTransactionID() + " from peer: " + response.getPeer().getName());
-                    successful.add(response);
-                } else {
-                    failed.add(response);
-                    log.error("Received unsuccessful transaction proposal response");
-                }
+            responses = channel.sendTransactionProposal(invokeRequest, endorsers);
+        } catch (ProposalException | InvalidArgumentException | RuntimeException e) {
+            endorsers.forEach(peer -> peerPool.complete(peer, start, false));
+            if (e instanceof ProposalException) {
+                recordNetworkFailure(e);
+            } else {
+                circuitBreaker.release();
+            }
+            throw e;
+        } finally {
+            latencyMetrics.record(LatencyMetrics.ENDORSE, invokeRequest.getChaincodeID().getName(),
+                    invokeRequest.getFcn(), start);
+        }
+        // an endorser the SDK could not reach is reported as a failed response, not as an exception
+        for (Peer peer : endorsers) {
+            peerPool.complete(peer, start, responses.stream()
+                    .anyMatch(response -> response.getPeer() == peer && HedgedQueryExecutor.isAnswered(response)));
+        }
+        for (ProposalResponse response : responses) {
+            if (!HedgedQueryExecutor.isAnswered(response)) {
+                ProposalException e = new ProposalException("No answer from endorser "
+                        + (response.getPeer() == null ? "" : response.getPeer().getName()) + " - " + response.getMessage());
+                recordNetworkFailure(e);
+                throw e;
+            }
+        }
+        circuitBreaker.recordSuccess();
+
+        // Process responses from transaction proposal
+        for (ProposalResponse response : responses) {
+            String stringResponse = new String(response.getChaincodeActionResponsePayload());
+            log.info("Invoke status:" + response.getStatus() + " result:" + stringResponse);
+
+            if (response.getStatus() == ChaincodeResponse.Status.SUCCESS) {
+                log.info("Received successful transaction proposal response txId:"
+                        + response.getTransactionID() + " from peer: " + response.getPeer().getName());
+                successful.add(response);
+            } else {
+                failed.add(response);
+                log.error("Received unsuccessful transaction proposal response");
             }
+        }
 
-            if (failed.size() > 0) {
-                log.error("Failed to send Proposal and receive successful proposal responses");
-                throw new RuntimeException("Proposal error");
+        if (failed.size() > 0) {
+            log.error("Failed to send Proposal and receive successful proposal responses");
+            throw new RuntimeException("Proposal error");
+        }
+        return successful;
+    }
+
+    /**
+     * Send the endorsed transaction to the orderer, the commit status is recorded by the tracker from the
+     * transaction event
+     *
+     * @return CompletableFuture completed with the transaction event
+     */
+    private CompletableFuture<BlockEvent.TransactionEvent> submit(Channel channel, User user,
+                                                                  TransactionProposalRequest invokeRequest,
+                                                                  Collection<ProposalResponse> endorsements,
+                                                                  int attempt) {
+        String txId = endorsements.iterator().next().getTransactionID();
+        String chaincodeName = invokeRequest.getChaincodeID().getName();
+        long start = LatencyMetrics.start();
+        CompletableFuture<BlockEvent.TransactionEvent> cf;
+        try {
+            cf = channel.sendTransaction(endorsements, user);
+        } finally {
+            latencyMetrics.record(LatencyMetrics.SUBMIT, chaincodeName, invokeRequest.getFcn(), start);
+        }
+        // from the orderer accepting the transaction to the commit event of a peer
+        long submitted = LatencyMetrics.start();
+        cf.whenComplete((event, error) -> {
+            latencyMetrics.record(LatencyMetrics.COMMIT, chaincodeName, invokeRequest.getFcn(), submitted);
+            if (event != null) {
+                log.info("Invoke Completed. txId:" + txId + " Block nb:" + event.getBlockEvent().getBlockNumber());
             }
-            // Send transaction to Orderer
-            CompletableFuture<BlockEvent.TransactionEvent> cf = channel.sendTransaction(responses);
-            CompletableFuture<Void> future = cf
-                    .thenAccept((s) -> log.info("Invoke Completed. Block nb:" + s.getBlockEvent().getBlockNumber()));
+            Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+            // an invalidated transaction is reported as TransactionEventException, the network is fine
+            if (cause instanceof TransactionException && !(cause instanceof TransactionEventException)) {
+                recordNetworkFailure(cause);
+            }
+        });
+        transactionTracker.track(txId, attempt, cf)
+                .thenAccept(status -> onCommit(channel, user, invokeRequest, txId, attempt, status));
+        return cf;
+    }
 
-        } catch (ProposalException ex) {
-            log.error("Proposal exception " + ex.getMessage());
-            throw new RuntimeException("Proposal exception ", ex);
+    /**
+     * Retries a transaction invalidated by a read conflict: the proposal is endorsed again against the ledger state
+     * that invalidated it, after a jittered exponential backoff so that conflicting writers do not collide again
+     */
+    private void onCommit(Channel channel, User user, TransactionProposalRequest invokeRequest, String txId,
+                          int attempt, TransactionStatus status) {
+        if (attempt > AMBConfig.INVOKE_MVCC_RETRIES || !TransactionTracker.isReadConflict(status)) {
+            transactionTracker.finish(txId, status);
+            return;
         }
+        long backoff = AMBConfig.INVOKE_MVCC_BACKOFF_MS << (attempt - 1);
+        long delay = backoff / 2 + (long) (Math.random() * backoff);
+        log.warn("Transaction " + txId + " invalidated with " + status.getValidationCodeName() + ", retrying in "
+                + delay + " ms (attempt " + (attempt + 1) + ")");
+        invokeRetries.schedule(() -> {
+            try {
+                pipelineInvoke(channel, user, invokeRequest, attempt + 1).whenComplete((retryTxId, error) -> {
+                    if (error == null) {
+                        transactionTracker.retried(txId, retryTxId);
+                    } else {
+                        log.error("Retry of transaction " + txId + " failed - " + error.getMessage());
+                        transactionTracker.finish(txId, status);
+                    }
+                });
+            } catch (PipelineFullException e) {
+                log.error("Retry of transaction " + txId + " rejected - " + e.getMessage());
+                transactionTracker.finish(txId, status);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
     }
 }
@@ -0,0 +1,285 @@
+package com.lambdajavablockchain.service;
+
+import org.hyperledger.fabric.sdk.BlockchainInfo;
+import org.hyperledger.fabric.sdk.Channel;
+import org.hyperledger.fabric.sdk.Peer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Pool of the peers joined to the channel, tracking for each peer the observed latency, the number of requests
+ * in flight and the ledger height. Queries are routed to the best scored peer and endorsements to the
+ * {@code n} best scored peers, peers lagging behind the highest known ledger height are used last. A failed request
+ * adds a penalty to the score of the peer that halves every 5 seconds, a peer that failed once is
+ * tried again after a while instead of being left out until the channel is rebuilt.
+ *
+ */
+public class PeerPool {
+
+    private static final Logger log = LoggerFactory.getLogger(PeerPool.class);
+
+    // weight of the latest sample in the latency moving average
+    private static final double EWMA_ALPHA = 0.2;
+    // score penalty of a failed request, keeps failing peers at the end of the list
+    private static final double FAILURE_PENALTY_MS = 5000;
+    // time after which half of the penalty is forgiven
+    private static final double FAILURE_HALF_LIFE_MS = 5000;
+    private static final double MAX_PENALTY_MS = 60000;
+
+    static class PeerStats {
+        private final Peer peer;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile double latencyMs;
+        private volatile long ledgerHeight;
+        private final AtomicLong failures = new AtomicLong();
+        // guarded by this, penalty of the recent failures as of penaltyAt
+        private double penaltyMs;
+        private long penaltyAt;
+
+        PeerStats(Peer peer) {
+            this.peer = peer;
+        }
+
+        private synchronized void record(double sampleMs) {
+            latencyMs = latencyMs == 0 ? sampleMs : latencyMs + EWMA_ALPHA * (sampleMs - latencyMs);
+        }
+
+        private synchronized void fail() {
+            long now = System.nanoTime();
+            penaltyMs = Math.min(MAX_PENALTY_MS, penalty(now) + FAILURE_PENALTY_MS);
+            penaltyAt = now;
+        }
+
+        private synchronized void succeed(double sampleMs) {
+            record(sampleMs);
+            // the peer answers again
+            penaltyMs = 0;
+        }
+
+        private synchronized double penalty(long now) {
+            if (penaltyMs == 0) {
+                return 0;
+            }
+            return penaltyMs * Math.pow(0.5, TimeUnit.NANOSECONDS.toMillis(now - penaltyAt) / FAILURE_HALF_LIFE_MS);
+        }
+
+        private double score(long now) {
+            // peers without samples yet score 0 so that they get tried
+            return (latencyMs + penalty(now)) * (1 + inFlight.get());
+        }
+    }
+
+    private final long heightLagTolerance;
+    private final long heightRefreshNanos;
+    private volatile List<PeerStats> peers = Collections.emptyList();
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private volatile long lastHeightRefresh;
+
+    /**
+     * @param heightLagTolerance long: number of blocks a peer may lag behind the highest peer and still be preferred
+     * @param heightRefreshMillis long: minimum interval between two ledger height refreshes
+     */
+    public PeerPool(long heightLagTolerance, long heightRefreshMillis) {
+        this.heightLagTolerance = heightLagTolerance;
+        this.heightRefreshNanos = TimeUnit.MILLISECONDS.toNanos(heightRefreshMillis);
+    }
+
+    /**
+     * Replaces the peers of the pool, used whenever the channel is (re)initialized
+     *
+     * @param channelPeers Collection of peers joined to the channel
+     */
+    public void setPeers(Collection<Peer> channelPeers) {
+        List<PeerStats> stats = new ArrayList<>();
+        for (Peer peer : channelPeers) {
+            stats.add(new PeerStats(peer));
+        }
+        this.peers = Collections.unmodifiableList(stats);
+        // allow an immediate refresh
+        this.lastHeightRefresh = System.nanoTime() - heightRefreshNanos;
+    }
+
+    public int size() {
+        return peers.size();
+    }
+
+    /**
+     * Best peer to send a query to
+     *
+     * @return Peer
+     */
+    public Peer selectForQuery() {
+        List<Peer> selected = select(1);
+        if (selected.isEmpty()) {
+            throw new IllegalStateException("No peer available in the pool");
+        }
+        return selected.get(0);
+    }
+
+    /**
+     * Best peers to send a transaction proposal to
+     *
+     * @param count int: number of endorsements required by the endorsement policy
+     * @return List of peers
+     */
+    public List<Peer> selectForEndorsement(int count) {
+        return select(count);
+    }
+
+    /**
+     * Peers ordered by preference, excluding {@code excluded}
+     *
+     * @param count int: maximum number of peers to return
+     * @param excluded Collection of peers to skip
+     * @return List of peers
+     */
+    public List<Peer> select(int count, Collection<Peer> excluded) {
+        List<PeerStats> candidates = peers;
+        long maxHeight = 0;
+        for (PeerStats stats : candidates) {
+            maxHeight = Math.max(maxHeight, stats.ledgerHeight);
+        }
+        final long minHeight = maxHeight - heightLagTolerance;
+
+        // scores change while sorting, they are computed once
+        long now = System.nanoTime();
+        Map<PeerStats, Double> scores = new IdentityHashMap<>();
+        for (PeerStats stats : candidates) {
+            scores.put(stats, stats.score(now));
+        }
+        return candidates.stream()
+                .filter(stats -> !excluded.contains(stats.peer))
+                .sorted(Comparator.<PeerStats>comparingInt(stats -> stats.ledgerHeight < minHeight ? 1 : 0)
+                        .thenComparingDouble(scores::get))
+                .limit(Math.max(1, count))
+                .map(stats -> stats.peer)
+                .collect(Collectors.toList());
+    }
+
+    private List<Peer> select(int count) {
+        return select(count, Collections.<Peer>emptySet());
+    }
+
+    /**
+     * Marks the start of a request to {@code peer}
+     *
+     * @param peer Peer
+     * @return long: start time to pass to complete()
+     */
+    public long start(Peer peer) {
+        PeerStats stats = stats(peer);
+        if (stats != null) {
+            stats.inFlight.incrementAndGet();
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Marks the end of a request to {@code peer} and records its latency
+     *
+     * @param peer Peer
+     * @param startNanos long: value returned by start()
+     * @param success boolean: false if the peer failed to answer
+     */
+    public void complete(Peer peer, long startNanos, boolean success) {
+        PeerStats stats = stats(peer);
+        if (stats == null) {
+            return;
+        }
+        stats.inFlight.decrementAndGet();
+        if (success) {
+            stats.succeed((System.nanoTime() - startNanos) / 1_000_000.0);
+        } else {
+            stats.failures.incrementAndGet();
+            stats.fail();
+        }
+    }
+
+    /**
+     * Records the ledger height of a peer, e.g. from a delivered block
+     *
+     * @param peer Peer
+     * @param height long: ledger height
+     */
+    public void updateHeight(Peer peer, long height) {
+        PeerStats stats = stats(peer);
+        if (stats != null && height > stats.ledgerHeight) {
+            stats.ledgerHeight = height;
+        }
+    }
+
+    /**
+     * Last known ledger height of a peer
+     *
+     * @param peer Peer
+     * @return long: ledger height, 0 if unknown
+     */
+    public long getHeight(Peer peer) {
+        PeerStats stats = stats(peer);
+        return stats == null ? 0 : stats.ledgerHeight;
+    }
+
+    /**
+     * Refreshes the ledger height of every peer in the background, at most once per refresh interval
+     *
+     * @param channel Channel: initialized channel
+     */
+    public void refreshHeightsIfStale(Channel channel) {
+        if (peers.size() < 2 || System.nanoTime() - lastHeightRefresh < heightRefreshNanos
+                || !refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        CompletableFuture.runAsync(() -> {
+            try {
+                for (PeerStats stats : peers) {
+                    try {
+                        BlockchainInfo info = channel.queryBlockchainInfo(stats.peer);
+                        updateHeight(stats.peer, info.getHeight());
+                    } catch (Exception e) {
+                        log.warn("Unable to query ledger height of peer " + stats.peer.getName() + " - " + e.getMessage());
+                    }
+                }
+                lastHeightRefresh = System.nanoTime();
+            } finally {
+                refreshing.set(false);
+            }
+        });
+    }
+
+    /**
+     * Per peer counters
+     *
+     * @return List of peer statistics
+     */
+    public List<Map<String, Object>> getStats() {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (PeerStats stats : peers) {
+            Map<String, Object> peerStats = new LinkedHashMap<>();
+            peerStats.put("name", stats.peer.getName());
+            peerStats.put("latencyMs", Math.round(stats.latencyMs * 100) / 100.0);
+            peerStats.put("penaltyMs", Math.round(stats.penalty(System.nanoTime()) * 100) / 100.0);
+            peerStats.put("inFlight", stats.inFlight.get());
+            peerStats.put("ledgerHeight", stats.ledgerHeight);
+            peerStats.put("failures", stats.failures.get());
+            result.add(peerStats);
+        }
+        return result;
+    }
+
+    private PeerStats stats(Peer peer) {
+        for (PeerStats stats : peers) {
+            if (stats.peer == peer) {
+                return stats;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,307 @@
+package com.lambdajavablockchain.service;
+
+import org.hyperledger.fabric.sdk.BlockEvent;
+import org.hyperledger.fabric.sdk.User;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of chaincode query results, keyed by user, chaincode, function and arguments.
+ * Query results can only change when a block commits, entries are invalidated from the write sets of the
+ * blocks delivered on the channel:
+ * - {@code block} mode drops every entry on each new block
+ * - {@code key} mode drops the entries of the written chaincode namespaces only, point-read functions (whose single
+ *   argument is the ledger key they read) are kept unless their key was written
+ * A result is only stored if no block was delivered while the query ran, and if the answering peer had committed
+ * the last delivered block or none of the recent blocks it may be missing wrote what the query read. A cached
+ * result is therefore never older than the last block observed by this instance.
+ *
+ */
+public class QueryResultCache implements BlockEventConsumer {
+
+    public static final String INVALIDATION_BLOCK = "block";
+    public static final String INVALIDATION_KEY = "key";
+
+    // system chaincodes writing on a chaincode deployment or upgrade, all results may change
+    private static final Set<String> LIFECYCLE_NAMESPACES = new HashSet<>(Arrays.asList("lscc", "_lifecycle"));
+
+    private static class Entry {
+        private final String namespace;
+        private final String ledgerKey;
+        private final byte[] payload;
+
+        private Entry(String namespace, String ledgerKey, byte[] payload) {
+            this.namespace = namespace;
+            this.ledgerKey = ledgerKey;
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * Keys written by a recently delivered block
+     */
+    private static class RecentBlock {
+        private final long blockNumber;
+        // null if any result may have changed, e.g. in block mode or on a chaincode deployment
+        private final Map<String, Set<String>> writtenKeys;
+
+        private RecentBlock(long blockNumber, Map<String, Set<String>> writtenKeys) {
+            this.blockNumber = blockNumber;
+            this.writtenKeys = writtenKeys;
+        }
+
+        private boolean wrote(String namespace, String ledgerKey) {
+            if (writtenKeys == null) {
+                return true;
+            }
+            Set<String> keys = writtenKeys.get(namespace);
+            return keys != null && (ledgerKey == null || keys.contains(ledgerKey));
+        }
+    }
+
+    private final BlockEventRouter blockEventRouter;
+    private final boolean enabled;
+    private final int maxEntries;
+    private final boolean keyInvalidation;
+    private final Set<String> pointReadFunctions;
+    private final int recentBlocks;
+    private final Map<String, Entry> entries;
+    // guarded by entries, the last recentBlocks delivered blocks, oldest first
+    private final ArrayDeque<RecentBlock> recent = new ArrayDeque<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong staleDiscards = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param blockEventRouter BlockEventRouter: source of the delivered blocks
+     * @param enabled boolean: disables the cache when false
+     * @param maxEntries int: maximum number of results kept in memory
+     * @param invalidation String: {@code block} or {@code key}
+     * @param pointReadFunctions Collection of chaincode functions whose single argument is the ledger key they read
+     * @param recentBlocks int: number of delivered blocks an answering peer may be missing, the peer lag tolerance
+     *                     plus one
+     */
+    public QueryResultCache(BlockEventRouter blockEventRouter, boolean enabled, int maxEntries, String invalidation,
+                            Collection<String> pointReadFunctions, int recentBlocks) {
+        if (!INVALIDATION_BLOCK.equals(invalidation) && !INVALIDATION_KEY.equals(invalidation)) {
+            throw new IllegalArgumentException("Unknown query cache invalidation mode: " + invalidation);
+        }
+        this.blockEventRouter = blockEventRouter;
+        this.enabled = enabled;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.keyInvalidation = INVALIDATION_KEY.equals(invalidation);
+        this.pointReadFunctions = new HashSet<>(pointReadFunctions);
+        this.recentBlocks = Math.max(1, recentBlocks);
+        // access-ordered map, the eldest entry is the least recently used one
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > QueryResultCache.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+        if (enabled) {
+            blockEventRouter.addConsumer(this);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Cache key of a query, results may depend on the caller identity so the user is part of the key
+     *
+     * @return String
+     */
+    public static String key(User user, String chaincodeName, String functionName, String... args) {
+        StringBuilder key = new StringBuilder()
+                .append(user.getMspId()).append('/').append(user.getName()).append('\u0000')
+                .append(chaincodeName).append('\u0000').append(functionName);
+        for (String arg : args) {
+            key.append('\u0000').append(arg);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Cached payload of a query
+     *
+     * @param key String: value returned by key()
+     * @return byte[] payload, null on a miss
+     */
+    public byte[] get(String key) {
+        if (!enabled) {
+            return null;
+        }
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.payload;
+    }
+
+    /**
+     * Block number to pass to put(), read before the query is sent
+     *
+     * @return long
+     */
+    public long generation() {
+        return blockEventRouter.getLastBlockNumber();
+    }
+
+    /**
+     * Stores the payload of a successful query, unless a block was delivered since {@code generation} or the
+     * answering peer may have read the state before a recent block that wrote what the query read
+     *
+     * @param key String: value returned by key()
+     * @param generation long: value returned by generation() before the query was sent
+     * @param peerHeight long: known ledger height of the peer that answered, 0 if unknown
+     * @param chaincodeName String: chaincode queried
+     * @param functionName String: function queried
+     * @param args String[]: query arguments
+     * @param payload byte[]: query response payload
+     */
+    public void put(String key, long generation, long peerHeight, String chaincodeName, String functionName,
+                    String[] args, byte[] payload) {
+        if (!enabled) {
+            return;
+        }
+        String ledgerKey = pointReadFunctions.contains(functionName) && args.length == 1 ? args[0] : null;
+        synchronized (entries) {
+            // the router updates the block number before invalidating, checked under the lock a concurrent
+            // invalidation either already ran or runs after this put
+            if (generation != blockEventRouter.getLastBlockNumber()) {
+                staleDiscards.incrementAndGet();
+                return;
+            }
+            if (peerHeight <= generation && mayBeMissing(peerHeight, chaincodeName, ledgerKey)) {
+                staleDiscards.incrementAndGet();
+                return;
+            }
+            entries.put(key, new Entry(chaincodeName, ledgerKey, payload));
+        }
+    }
+
+    /**
+     * True if a block from {@code peerHeight} on, which the peer may not have committed, wrote the key read, or if
+     * such a block is no longer known. The caller holds the lock.
+     */
+    private boolean mayBeMissing(long peerHeight, String namespace, String ledgerKey) {
+        if (recent.isEmpty() || recent.peekFirst().blockNumber > peerHeight) {
+            return true;
+        }
+        for (RecentBlock block : recent) {
+            if (block.blockNumber >= peerHeight && block.wrote(namespace, ledgerKey)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addRecent(RecentBlock block) {
+        synchronized (entries) {
+            if (recent.size() >= recentBlocks) {
+                recent.poll();
+            }
+            recent.add(block);
+        }
+    }
+
+    @Override
+    public void onBlock(BlockEvent blockEvent) {
+        long blockNumber = blockEvent.getBlockNumber();
+        if (!keyInvalidation) {
+            addRecent(new RecentBlock(blockNumber, null));
+            invalidateAll();
+            return;
+        }
+
+        Map<String, Set<String>> writtenKeys = new HashMap<>();
+        for (LedgerWrite write : LedgerWrite.fromBlock(blockEvent)) {
+            if (LIFECYCLE_NAMESPACES.contains(write.getNamespace())) {
+                addRecent(new RecentBlock(blockNumber, null));
+                invalidateAll();
+                return;
+            }
+            writtenKeys.computeIfAbsent(write.getNamespace(), namespace -> new HashSet<>()).add(write.getKey());
+        }
+        addRecent(new RecentBlock(blockNumber, writtenKeys));
+        if (writtenKeys.isEmpty()) {
+            return;
+        }
+
+        synchronized (entries) {
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                Set<String> keys = writtenKeys.get(entry.namespace);
+                if (keys != null && (entry.ledgerKey == null || keys.contains(entry.ledgerKey))) {
+                    iterator.remove();
+                    invalidations.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onGap(long firstMissed, long lastMissed) {
+        // the keys written in the missed blocks are unknown
+        synchronized (entries) {
+            recent.clear();
+        }
+        invalidateAll();
+    }
+
+    /**
+     * Removes all cached results
+     */
+    public void invalidateAll() {
+        synchronized (entries) {
+            invalidations.addAndGet(entries.size());
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Cache counters, used to verify the hit ratio under load
+     *
+     * @return Map of counter name to value
+     */
+    public Map<String, Object> getStats() {
+        long hitCount = hits.get();
+        long lookups = hitCount + misses.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("invalidation", keyInvalidation ? INVALIDATION_KEY : INVALIDATION_BLOCK);
+        stats.put("size", size());
+        stats.put("maxEntries", maxEntries);
+        stats.put("hits", hitCount);
+        stats.put("misses", misses.get());
+        stats.put("hitRatio", lookups == 0 ? 0 : Math.round(hitCount * 10000.0 / lookups) / 10000.0);
+        stats.put("invalidations", invalidations.get());
+        stats.put("staleDiscards", staleDiscards.get());
+        stats.put("evictions", evictions.get());
+        stats.put("lastBlockNumber", blockEventRouter.getLastBlockNumber());
+        stats.put("deliveryGaps", blockEventRouter.getGaps());
+        return stats;
+    }
+}
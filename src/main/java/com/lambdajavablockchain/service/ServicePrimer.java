@@ -0,0 +1,43 @@
+package com.lambdajavablockchain.service;
+
+import com.lambdajavablockchain.model.AMBConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Primes ManagedBlockchainService once the Spring application is ready, when PRIME_ON_INIT is enabled.
+ * In Lambda the application is started from the static initializer of StreamLambdaHandler, so the HF client,
+ * the Lambda user enrollment and the channel are ready before the first invocation.
+ * A failure is only logged, requests then initialize the service lazily as usual.
+ *
+ */
+@Component
+public class ServicePrimer implements ApplicationListener<ApplicationReadyEvent> {
+
+    private static final Logger log = LoggerFactory.getLogger(ServicePrimer.class);
+
+    @Autowired
+    ManagedBlockchainService service;
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        if (!AMBConfig.PRIME_ON_INIT) {
+            return;
+        }
+        try {
+            log.info("Priming ManagedBlockchainService ...");
+            Map<String, Long> timings = service.prime();
+            log.info("ManagedBlockchainService primed in " + timings.get("total") + "ms - setupClient:"
+                    + timings.get("setupClient") + "ms loadUser:" + timings.get("loadUser")
+                    + "ms initChannel:" + timings.get("initChannel") + "ms");
+        } catch (Exception e) {
+            log.warn("Priming ManagedBlockchainService failed, first request will initialize it - " + e.getMessage());
+        }
+    }
+}
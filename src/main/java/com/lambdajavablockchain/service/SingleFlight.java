@@ -0,0 +1,89 @@
+package com.lambdajavablockchain.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces identical concurrent calls: the first caller for a key runs the call, callers arriving while it is in
+ * flight wait for it and receive the same result or the same exception. Nothing is kept once the call completes.
+ *
+ * @param <V> result type
+ */
+public class SingleFlight<V> {
+
+    /**
+     * Call shared by the concurrent callers of a key
+     */
+    public interface Call<V> {
+        V call() throws Exception;
+    }
+
+    private final boolean enabled;
+    private final Map<String, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * @param enabled boolean: every caller runs its own call when false
+     */
+    public SingleFlight(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Runs {@code call}, or waits for the identical call already in flight
+     *
+     * @param key String: identifies identical calls
+     * @param call Call: run by the first caller only
+     * @return V: result of the call
+     * @throws Exception thrown by the call, rethrown to every waiting caller
+     */
+    public V execute(String key, Call<V> call) throws Exception {
+        if (!enabled) {
+            calls.incrementAndGet();
+            return call.call();
+        }
+
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+
+        calls.incrementAndGet();
+        try {
+            V result = call.call();
+            inFlight.remove(key, flight);
+            flight.complete(result);
+            return result;
+        } catch (Exception | Error e) {
+            inFlight.remove(key, flight);
+            flight.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Coalescing counters
+     *
+     * @return Map of counter name to value
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("inFlight", inFlight.size());
+        stats.put("calls", calls.get());
+        stats.put("coalesced", coalesced.get());
+        return stats;
+    }
+}
@@ -0,0 +1,248 @@
+package com.lambdajavablockchain.service;
+
+import com.lambdajavablockchain.model.TransactionStatus;
+import org.hyperledger.fabric.protos.peer.TransactionPackage;
+import org.hyperledger.fabric.sdk.BlockEvent;
+import org.hyperledger.fabric.sdk.exception.TransactionEventException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the commit outcome of the transactions submitted by this instance, from the transaction events of the
+ * Fabric SDK. The most recent transactions are kept, the oldest one is dropped once the tracker is full.
+ * A transaction invalidated by a read conflict may be retried under a new transaction id, its outcome then
+ * follows the retry.
+ *
+ */
+public class TransactionTracker {
+
+    private static class Tracked {
+        private final TransactionStatus pending;
+        private final CompletableFuture<TransactionStatus> completion;
+        // final status once retries are done, completed by finish() or by the outcome of the retry
+        private final CompletableFuture<TransactionStatus> outcome = new CompletableFuture<>();
+
+        private Tracked(TransactionStatus pending, CompletableFuture<TransactionStatus> completion) {
+            this.pending = pending;
+            this.completion = completion;
+        }
+    }
+
+    private final int maxSize;
+    private final Map<String, Tracked> transactions;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong committed = new AtomicLong();
+    private final AtomicLong invalid = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+
+    /**
+     * @param maxSize int: maximum number of transactions kept
+     */
+    public TransactionTracker(int maxSize) {
+        this.maxSize = Math.max(1, maxSize);
+        // insertion-ordered map, the eldest entry is the oldest submitted transaction
+        this.transactions = new LinkedHashMap<String, Tracked>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Tracked> eldest) {
+                return size() > TransactionTracker.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Starts tracking a transaction sent to the orderer
+     *
+     * @param txId String: transaction id
+     * @param attempt int: 1 for the first submission, incremented on each retry
+     * @param commit CompletableFuture: returned by Channel.sendTransaction()
+     * @return CompletableFuture completed with the status of this transaction, never completed exceptionally.
+     * finish() or retried() must be called once it completes.
+     */
+    public CompletableFuture<TransactionStatus> track(String txId, int attempt,
+                                                      CompletableFuture<BlockEvent.TransactionEvent> commit) {
+        TransactionStatus pending = new TransactionStatus(txId, TransactionStatus.PENDING);
+        pending.setSubmittedAt(System.currentTimeMillis());
+        pending.setAttempt(attempt);
+        submitted.incrementAndGet();
+
+        CompletableFuture<TransactionStatus> completion = commit.handle((event, error) -> {
+            TransactionStatus status = error == null ? fromEvent(txId, event) : fromError(txId, error);
+            status.setSubmittedAt(pending.getSubmittedAt());
+            status.setCompletedAt(System.currentTimeMillis());
+            status.setAttempt(attempt);
+            return status;
+        });
+        synchronized (transactions) {
+            transactions.put(txId, new Tracked(pending, completion));
+        }
+        return completion;
+    }
+
+    /**
+     * Current status of a transaction submitted by this instance
+     *
+     * @param txId String: transaction id
+     * @return TransactionStatus, null if the transaction is not tracked by this instance
+     */
+    public TransactionStatus get(String txId) {
+        Tracked tracked;
+        synchronized (transactions) {
+            tracked = transactions.get(txId);
+        }
+        if (tracked == null) {
+            return null;
+        }
+        return tracked.completion.isDone() ? tracked.completion.join() : tracked.pending;
+    }
+
+    /**
+     * Current status of a transaction submitted by this instance, following its retries
+     *
+     * @param txId String: transaction id
+     * @return TransactionStatus of the last retry, null if the transaction is not tracked by this instance
+     */
+    public TransactionStatus latest(String txId) {
+        TransactionStatus status = get(txId);
+        while (status != null && status.getRetriedAs() != null) {
+            TransactionStatus retry = get(status.getRetriedAs());
+            if (retry == null) {
+                break;
+            }
+            status = retry;
+        }
+        return status;
+    }
+
+    /**
+     * Outcome of a transaction submitted by this instance, following its retries
+     *
+     * @param txId String: transaction id
+     * @return CompletableFuture completed with the final status, null if the transaction is not tracked
+     */
+    public CompletableFuture<TransactionStatus> outcome(String txId) {
+        synchronized (transactions) {
+            Tracked tracked = transactions.get(txId);
+            return tracked == null ? null : tracked.outcome;
+        }
+    }
+
+    /**
+     * Marks the status of a completed transaction as final, it is not retried
+     *
+     * @param txId String: transaction id
+     * @param status TransactionStatus: status of the transaction
+     */
+    public void finish(String txId, TransactionStatus status) {
+        Tracked tracked;
+        synchronized (transactions) {
+            tracked = transactions.get(txId);
+        }
+        if (tracked != null) {
+            tracked.outcome.complete(status);
+        }
+    }
+
+    /**
+     * Records that an invalidated transaction was submitted again as {@code retryTxId}, the outcome of the
+     * transaction becomes the outcome of the retry
+     *
+     * @param txId String: id of the invalidated transaction
+     * @param retryTxId String: id of the retry
+     */
+    public void retried(String txId, String retryTxId) {
+        Tracked tracked;
+        Tracked retry;
+        synchronized (transactions) {
+            tracked = transactions.get(txId);
+            retry = transactions.get(retryTxId);
+        }
+        retried.incrementAndGet();
+        if (tracked == null) {
+            return;
+        }
+        tracked.completion.join().setRetriedAs(retryTxId);
+        if (retry == null) {
+            tracked.outcome.complete(tracked.completion.join());
+        } else {
+            retry.outcome.thenAccept(tracked.outcome::complete);
+        }
+    }
+
+    /**
+     * @param status TransactionStatus
+     * @return boolean: true if the transaction was invalidated by a read conflict and may succeed if retried
+     */
+    public static boolean isReadConflict(TransactionStatus status) {
+        Integer code = status.getValidationCode();
+        return TransactionStatus.INVALID.equals(status.getStatus()) && code != null
+                && (code == TransactionPackage.TxValidationCode.MVCC_READ_CONFLICT_VALUE
+                || code == TransactionPackage.TxValidationCode.PHANTOM_READ_CONFLICT_VALUE);
+    }
+
+    /**
+     * Status of a transaction read from its validation code, e.g. from the ledger
+     *
+     * @param txId String: transaction id
+     * @param validationCode int: validation code of the transaction
+     * @param blockNumber long: block holding the transaction
+     * @return TransactionStatus
+     */
+    public static TransactionStatus fromValidationCode(String txId, int validationCode, long blockNumber) {
+        TransactionStatus status = new TransactionStatus(txId, validationCode == TransactionPackage.TxValidationCode.VALID_VALUE
+                ? TransactionStatus.COMMITTED : TransactionStatus.INVALID);
+        status.setValidationCode(validationCode);
+        TransactionPackage.TxValidationCode code = TransactionPackage.TxValidationCode.forNumber(validationCode);
+        status.setValidationCodeName(code == null ? String.valueOf(validationCode) : code.name());
+        status.setBlockNumber(blockNumber);
+        return status;
+    }
+
+    private TransactionStatus fromEvent(String txId, BlockEvent.TransactionEvent event) {
+        TransactionStatus status = fromValidationCode(txId, event.getValidationCode(),
+                event.getBlockEvent().getBlockNumber());
+        (event.isValid() ? committed : invalid).incrementAndGet();
+        return status;
+    }
+
+    private TransactionStatus fromError(String txId, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof TransactionEventException
+                && ((TransactionEventException) cause).getTransactionEvent() != null) {
+            // the transaction was committed to a block but invalidated
+            return fromEvent(txId, ((TransactionEventException) cause).getTransactionEvent());
+        }
+        failed.incrementAndGet();
+        TransactionStatus status = new TransactionStatus(txId, TransactionStatus.FAILED);
+        status.setError(cause.getMessage());
+        return status;
+    }
+
+    public int size() {
+        synchronized (transactions) {
+            return transactions.size();
+        }
+    }
+
+    /**
+     * Transaction counters
+     *
+     * @return Map of counter name to value
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("tracked", size());
+        stats.put("maxSize", maxSize);
+        stats.put("submitted", submitted.get());
+        stats.put("committed", committed.get());
+        stats.put("invalid", invalid.get());
+        stats.put("failed", failed.get());
+        stats.put("retried", retried.get());
+        return stats;
+    }
+}
@@ -0,0 +1,176 @@
+package com.lambdajavablockchain.service;
+
+import com.lambdajavablockchain.exception.PipelineFullException;
+import org.hyperledger.fabric.sdk.BlockEvent;
+import org.hyperledger.fabric.sdk.ProposalResponse;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pipeline of the transactions written to the channel. Endorsement and orderer submission run on separate
+ * executors, so that the next transaction is endorsed while the previous one is being ordered, and at most
+ * {@code window} transactions are in flight from endorsement until commit. Callers wait for a free slot when the
+ * window is full and are rejected once the wait times out. A slot is released after {@code commitDeadlineMillis}
+ * even if the commit event never arrives, e.g. while the event service reconnects.
+ *
+ */
+public class WritePipeline {
+
+    /**
+     * Endorses the transaction proposal
+     */
+    public interface Endorsement {
+        Collection<ProposalResponse> endorse() throws Exception;
+    }
+
+    /**
+     * Sends the endorsed transaction to the orderer
+     */
+    public interface Submission {
+        CompletableFuture<BlockEvent.TransactionEvent> submit(Collection<ProposalResponse> endorsements) throws Exception;
+    }
+
+    private final int window;
+    private final long waitMillis;
+    private final long commitDeadlineMillis;
+    private final Semaphore slots;
+    private final ExecutorService endorseExecutor;
+    private final ExecutorService submitExecutor;
+    private final ScheduledExecutorService timeouts;
+
+    private final AtomicInteger endorsing = new AtomicInteger();
+    private final AtomicInteger submitting = new AtomicInteger();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong totalEndorseNanos = new AtomicLong();
+    private final AtomicLong totalSubmitNanos = new AtomicLong();
+
+    /**
+     * @param window int: maximum number of transactions in flight, from endorsement until commit
+     * @param waitMillis long: maximum time a caller waits for a free slot when the window is full
+     * @param commitDeadlineMillis long: maximum time a slot is held after the transaction is sent to the orderer
+     * @param endorseExecutor ExecutorService: runs the endorsements
+     * @param submitExecutor ExecutorService: runs the orderer submissions
+     * @param timeouts ScheduledExecutorService: releases the slots of commits that did not arrive in time
+     */
+    public WritePipeline(int window, long waitMillis, long commitDeadlineMillis, ExecutorService endorseExecutor,
+                         ExecutorService submitExecutor, ScheduledExecutorService timeouts) {
+        this.window = Math.max(1, window);
+        this.waitMillis = waitMillis;
+        this.commitDeadlineMillis = commitDeadlineMillis;
+        this.slots = new Semaphore(this.window);
+        this.endorseExecutor = endorseExecutor;
+        this.submitExecutor = submitExecutor;
+        this.timeouts = timeouts;
+    }
+
+    /**
+     * Queues a transaction once a slot of the window is free
+     *
+     * @param endorsement Endorsement: endorses the proposal
+     * @param submission Submission: sends the endorsed transaction to the orderer
+     * @return CompletableFuture completed with the transaction id once it is sent to the orderer
+     * @throws PipelineFullException if no slot was freed within the wait time
+     */
+    public CompletableFuture<String> execute(Endorsement endorsement, Submission submission) throws PipelineFullException {
+        acquire();
+
+        CompletableFuture<String> sent = CompletableFuture.supplyAsync(() -> {
+            endorsing.incrementAndGet();
+            long start = System.nanoTime();
+            try {
+                return endorsement.endorse();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            } finally {
+                totalEndorseNanos.addAndGet(System.nanoTime() - start);
+                endorsing.decrementAndGet();
+            }
+        }, endorseExecutor).thenApplyAsync(endorsements -> {
+            submitting.incrementAndGet();
+            long start = System.nanoTime();
+            try {
+                String txId = endorsements.iterator().next().getTransactionID();
+                CompletableFuture<BlockEvent.TransactionEvent> commit = submission.submit(endorsements);
+                // the slot is held until the transaction is committed or rejected, at most until the deadline
+                AtomicBoolean released = new AtomicBoolean();
+                ScheduledFuture<?> deadline = timeouts.schedule(() -> {
+                    if (released.compareAndSet(false, true)) {
+                        expired.incrementAndGet();
+                        slots.release();
+                    }
+                }, commitDeadlineMillis, TimeUnit.MILLISECONDS);
+                commit.whenComplete((event, error) -> {
+                    deadline.cancel(false);
+                    if (released.compareAndSet(false, true)) {
+                        slots.release();
+                    }
+                });
+                submitted.incrementAndGet();
+                return txId;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            } finally {
+                totalSubmitNanos.addAndGet(System.nanoTime() - start);
+                submitting.decrementAndGet();
+            }
+        }, submitExecutor);
+
+        sent.whenComplete((txId, error) -> {
+            if (error != null) {
+                // never reached the orderer, no commit to wait for
+                failed.incrementAndGet();
+                slots.release();
+            }
+        });
+        return sent;
+    }
+
+    private void acquire() throws PipelineFullException {
+        try {
+            if (!slots.tryAcquire(waitMillis, TimeUnit.MILLISECONDS)) {
+                rejected.incrementAndGet();
+                throw new PipelineFullException("Too many transactions in flight, " + window + " pending commits");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PipelineFullException("Interrupted while waiting for a transaction slot", e);
+        }
+    }
+
+    /**
+     * Pipeline counters
+     *
+     * @return Map of counter name to value
+     */
+    public Map<String, Object> getStats() {
+        long count = submitted.get() + failed.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("window", window);
+        stats.put("inFlight", window - slots.availablePermits());
+        stats.put("endorsing", endorsing.get());
+        stats.put("submitting", submitting.get());
+        stats.put("submitted", submitted.get());
+        stats.put("failed", failed.get());
+        stats.put("rejected", rejected.get());
+        stats.put("commitDeadlineExpired", expired.get());
+        stats.put("averageEndorseMs", count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalEndorseNanos.get()) / count);
+        stats.put("averageSubmitMs", submitted.get() == 0 ? 0
+                : TimeUnit.NANOSECONDS.toMillis(totalSubmitNanos.get()) / submitted.get());
+        return stats;
+    }
+}
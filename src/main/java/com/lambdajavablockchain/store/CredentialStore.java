@@ -0,0 +1,39 @@
+package com.lambdajavablockchain.store;
+
+import com.lambdajavablockchain.exception.EnrollmentNotFoundException;
+import com.lambdajavablockchain.model.FabricEnrollment;
+import org.hyperledger.fabric.sdk.Enrollment;
+
+/**
+ * Persistence of Fabric users credentials (private key and sign certificate)
+ *
+ */
+public interface CredentialStore {
+
+    /**
+     * Creates FabricEnrollment using stored user credentials
+     *
+     * @param userId String: user id
+     * @param orgName String: organisation name
+     * @return FabricEnrollment
+     * @throws EnrollmentNotFoundException if no credentials are stored for the user
+     */
+    FabricEnrollment getEnrollment(String userId, String orgName) throws EnrollmentNotFoundException;
+
+    /**
+     * Save Enrollment credentials (private key and sign certificate)
+     *
+     * @param userId String: user id
+     * @param orgName String: organisation name
+     * @param enrollment Enrollment: Enrollment details
+     * @return boolean
+     */
+    boolean storeEnrollment(String userId, String orgName, Enrollment enrollment);
+
+    /**
+     * Name of the store, used in logs
+     *
+     * @return String
+     */
+    String getName();
+}
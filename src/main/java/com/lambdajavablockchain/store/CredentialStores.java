@@ -0,0 +1,44 @@
+package com.lambdajavablockchain.store;
+
+import com.lambdajavablockchain.model.AMBConfig;
+
+/**
+ * Creates the CredentialStore selected by configuration
+ *
+ */
+public class CredentialStores {
+
+    public static final String SECRETS_MANAGER = "secretsmanager";
+    public static final String FILE = "file";
+    public static final String MEMORY = "memory";
+
+    private CredentialStores() {}
+
+    /**
+     * Creates the CredentialStore configured with the CREDENTIAL_STORE environment variable
+     *
+     * @return CredentialStore
+     */
+    public static CredentialStore fromConfig() {
+        return create(AMBConfig.CREDENTIAL_STORE);
+    }
+
+    /**
+     * Creates a CredentialStore by type
+     *
+     * @param type String: secretsmanager, file or memory
+     * @return CredentialStore
+     */
+    public static CredentialStore create(String type) {
+        switch (type.toLowerCase()) {
+            case SECRETS_MANAGER:
+                return new SecretsManagerCredentialStore();
+            case FILE:
+                return new FileCredentialStore(AMBConfig.CREDENTIAL_STORE_DIR, AMBConfig.CREDENTIAL_STORE_KEY);
+            case MEMORY:
+                return new InMemoryCredentialStore();
+            default:
+                throw new IllegalArgumentException("Unknown credential store " + type);
+        }
+    }
+}
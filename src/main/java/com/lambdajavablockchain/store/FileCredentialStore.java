@@ -0,0 +1,132 @@
+package com.lambdajavablockchain.store;
+
+import com.lambdajavablockchain.SecretsManagerUtil;
+import com.lambdajavablockchain.exception.EnrollmentNotFoundException;
+import com.lambdajavablockchain.model.FabricEnrollment;
+import org.hyperledger.fabric.sdk.Enrollment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * CredentialStore keeping users credentials in AES-GCM encrypted files on the local file system.
+ * Each user is stored in {@code <directory>/<orgName>/<userId>.enc}, the file holds a random IV followed by
+ * the encrypted JSON credentials used by the combined Secrets Manager format.
+ *
+ */
+public class FileCredentialStore implements CredentialStore {
+
+    private static final Logger log = LoggerFactory.getLogger(FileCredentialStore.class);
+
+    private static final String CIPHER = "AES/GCM/NoPadding";
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH_BITS = 128;
+
+    private final Path directory;
+    private final SecretKeySpec key;
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * @param directory String: directory holding the credential files
+     * @param base64Key String: Base64 encoded AES key (16, 24 or 32 bytes)
+     */
+    public FileCredentialStore(String directory, String base64Key) {
+        if (base64Key == null || base64Key.isEmpty()) {
+            throw new IllegalArgumentException("An encryption key is required by the file credential store");
+        }
+        byte[] keyBytes = Base64.getDecoder().decode(base64Key);
+        if (keyBytes.length != 16 && keyBytes.length != 24 && keyBytes.length != 32) {
+            throw new IllegalArgumentException("Encryption key of the file credential store must be 16, 24 or 32 bytes");
+        }
+        this.directory = Paths.get(directory);
+        this.key = new SecretKeySpec(keyBytes, "AES");
+    }
+
+    @Override
+    public FabricEnrollment getEnrollment(String userId, String orgName) throws EnrollmentNotFoundException {
+        Path file = file(userId, orgName);
+        if (!Files.exists(file)) {
+            throw new EnrollmentNotFoundException("Fabric credentials not found for user " + userId);
+        }
+        try {
+            return SecretsManagerUtil.readCombinedSecret(decrypt(Files.readAllBytes(file)));
+        } catch (IOException | GeneralSecurityException e) {
+            log.warn("Unable to read credentials file " + file);
+            throw new EnrollmentNotFoundException("Fabric credentials not readable for user " + userId, e);
+        }
+    }
+
+    @Override
+    public boolean storeEnrollment(String userId, String orgName, Enrollment enrollment) {
+        Path file = file(userId, orgName);
+        if (Files.exists(file)) {
+            return false;
+        }
+        String credentials = SecretsManagerUtil.writeCombinedSecret(
+                Base64.getEncoder().encodeToString(enrollment.getKey().getEncoded()), enrollment.getCert());
+        try {
+            Files.createDirectories(file.getParent());
+            // Write to a temporary file first so that readers never see a partial file
+            Path tmp = Files.createTempFile(file.getParent(), "credentials", ".tmp");
+            Files.write(tmp, encrypt(credentials));
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException | GeneralSecurityException e) {
+            log.error("Unable to write credentials file " + file + " - " + e.getMessage());
+            throw new IllegalStateException("Unable to store credentials for user " + userId, e);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "file store " + directory;
+    }
+
+    private byte[] encrypt(String plainText) throws GeneralSecurityException {
+        byte[] iv = new byte[IV_LENGTH];
+        random.nextBytes(iv);
+        Cipher cipher = Cipher.getInstance(CIPHER);
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+        byte[] cipherText = cipher.doFinal(plainText.getBytes(StandardCharsets.UTF_8));
+
+        byte[] content = new byte[IV_LENGTH + cipherText.length];
+        System.arraycopy(iv, 0, content, 0, IV_LENGTH);
+        System.arraycopy(cipherText, 0, content, IV_LENGTH, cipherText.length);
+        return content;
+    }
+
+    private String decrypt(byte[] content) throws GeneralSecurityException {
+        if (content.length <= IV_LENGTH) {
+            throw new GeneralSecurityException("Credentials file is truncated");
+        }
+        Cipher cipher = Cipher.getInstance(CIPHER);
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, Arrays.copyOf(content, IV_LENGTH)));
+        byte[] plainText = cipher.doFinal(content, IV_LENGTH, content.length - IV_LENGTH);
+        return new String(plainText, StandardCharsets.UTF_8);
+    }
+
+    private Path file(String userId, String orgName) {
+        // Encode names so that user ids cannot escape the store directory
+        return directory.resolve(encode(orgName)).resolve(encode(userId) + ".enc");
+    }
+
+    private static String encode(String name) {
+        try {
+            return URLEncoder.encode(name, "UTF-8").replace(".", "%2E");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.lambdajavablockchain.store;
+
+import com.lambdajavablockchain.exception.EnrollmentNotFoundException;
+import com.lambdajavablockchain.model.FabricEnrollment;
+import org.hyperledger.fabric.sdk.Enrollment;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CredentialStore keeping users credentials in memory, credentials are lost when the container stops.
+ * Meant for offline performance tests and local development.
+ *
+ */
+public class InMemoryCredentialStore implements CredentialStore {
+
+    private final Map<String, FabricEnrollment> enrollments = new ConcurrentHashMap<>();
+
+    @Override
+    public FabricEnrollment getEnrollment(String userId, String orgName) throws EnrollmentNotFoundException {
+        FabricEnrollment enrollment = enrollments.get(key(userId, orgName));
+        if (enrollment == null) {
+            throw new EnrollmentNotFoundException("Fabric credentials not found for user " + userId);
+        }
+        return enrollment;
+    }
+
+    @Override
+    public boolean storeEnrollment(String userId, String orgName, Enrollment enrollment) {
+        return enrollments.putIfAbsent(key(userId, orgName),
+                new FabricEnrollment(enrollment.getKey(), enrollment.getCert())) == null;
+    }
+
+    @Override
+    public String getName() {
+        return "in-memory store";
+    }
+
+    private static String key(String userId, String orgName) {
+        return orgName + "/" + userId;
+    }
+}
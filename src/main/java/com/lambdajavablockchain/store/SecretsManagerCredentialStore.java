@@ -0,0 +1,28 @@
+package com.lambdajavablockchain.store;
+
+import com.lambdajavablockchain.SecretsManagerUtil;
+import com.lambdajavablockchain.exception.EnrollmentNotFoundException;
+import com.lambdajavablockchain.model.FabricEnrollment;
+import org.hyperledger.fabric.sdk.Enrollment;
+
+/**
+ * CredentialStore keeping users credentials on AWS Secrets Manager
+ *
+ */
+public class SecretsManagerCredentialStore implements CredentialStore {
+
+    @Override
+    public FabricEnrollment getEnrollment(String userId, String orgName) throws EnrollmentNotFoundException {
+        return SecretsManagerUtil.getFabricEnrollment(userId, orgName);
+    }
+
+    @Override
+    public boolean storeEnrollment(String userId, String orgName, Enrollment enrollment) {
+        return SecretsManagerUtil.storeEnrollmentCredentials(userId, orgName, enrollment);
+    }
+
+    @Override
+    public String getName() {
+        return "Secrets Manager";
+    }
+}
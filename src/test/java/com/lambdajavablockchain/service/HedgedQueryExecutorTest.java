@@ -0,0 +1,77 @@
+package com.lambdajavablockchain.service;
+
+import org.hyperledger.fabric.protos.peer.FabricProposalResponse;
+import org.hyperledger.fabric.sdk.ChaincodeResponse;
+import org.hyperledger.fabric.sdk.Channel;
+import org.hyperledger.fabric.sdk.Peer;
+import org.hyperledger.fabric.sdk.ProposalResponse;
+import org.hyperledger.fabric.sdk.QueryByChaincodeRequest;
+import org.hyperledger.fabric.sdk.exception.ProposalException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class HedgedQueryExecutorTest {
+
+    private Peer peer;
+    private Channel channel;
+    private PeerPool peerPool;
+    private HedgedQueryExecutor executor;
+
+    @Before
+    public void setUp() {
+        peer = mock(Peer.class);
+        when(peer.getName()).thenReturn("peer1");
+        channel = mock(Channel.class);
+        peerPool = new PeerPool(1, 60000);
+        peerPool.setPeers(Collections.singletonList(peer));
+        executor = new HedgedQueryExecutor(peerPool, false, 95, 0);
+    }
+
+    /**
+     * The SDK does not throw for a peer it cannot reach, it returns a failed response without a peer proposal
+     * response
+     */
+    @Test
+    public void unreachablePeerIsANetworkFailure() throws Exception {
+        ProposalResponse unreachable = response(null);
+        when(channel.queryByChaincode(any(QueryByChaincodeRequest.class), anyCollection()))
+                .thenReturn(Collections.singletonList(unreachable));
+
+        try {
+            executor.execute(channel, mock(QueryByChaincodeRequest.class));
+            fail("An unreachable peer must fail the query");
+        } catch (ProposalException e) {
+            // recorded as a network failure by the caller
+        }
+        assertEquals(1L, peerPool.getStats().get(0).get("failures"));
+    }
+
+    @Test
+    public void chaincodeErrorIsAnAnswer() throws Exception {
+        ProposalResponse chaincodeError = response(FabricProposalResponse.ProposalResponse.getDefaultInstance());
+        when(channel.queryByChaincode(any(QueryByChaincodeRequest.class), anyCollection()))
+                .thenReturn(Collections.singletonList(chaincodeError));
+
+        assertSame(chaincodeError, executor.execute(channel, mock(QueryByChaincodeRequest.class)));
+        assertEquals(0L, peerPool.getStats().get(0).get("failures"));
+    }
+
+    private ProposalResponse response(FabricProposalResponse.ProposalResponse peerResponse) {
+        ProposalResponse response = mock(ProposalResponse.class);
+        when(response.getStatus()).thenReturn(ChaincodeResponse.Status.FAILURE);
+        when(response.getProposalResponse()).thenReturn(peerResponse);
+        when(response.getPeer()).thenReturn(peer);
+        when(response.getMessage()).thenReturn("UNAVAILABLE: io exception");
+        return response;
+    }
+}